@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import com.romanenco.gitt.git.FileBlame;
+import com.romanenco.gitt.git.GitError;
+import com.romanenco.gitt.git.GitHelper.LogEntry;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Lines of a file with commit which last changed them.
+ * 
+ * Blame is computed in background; list is refreshed as regions come,
+ * recent commits first. Tap on a line shows its commit.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class BlameActivity extends Activity {
+	
+	private static final String TAG = "Blame";
+	
+	/**
+	 * Repo on disk, file relative to its root, branch/tag (null for HEAD).
+	 */
+	public static final String REPO_PATH = "REPO_PATH";
+	public static final String GIT_PATH = "GIT_PATH";
+	public static final String REVISION = "REVISION";
+	
+	/**
+	 * Min time between list refreshes while computing.
+	 */
+	private static final long REFRESH_MS = 300;
+	
+	private String name;
+	private FileBlame blame;
+	private BlameAdapter adapter;
+	private BlameTask task;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_blame);
+		
+		String path = getIntent().getStringExtra(GIT_PATH);
+		name = path.substring(path.lastIndexOf('/') + 1);
+		try {
+			blame = FileBlame.open(getIntent().getStringExtra(REPO_PATH), path,
+					getIntent().getStringExtra(REVISION));
+		} catch (GitError e) {
+			Toast.makeText(this, R.string.msg_blame_failed, Toast.LENGTH_SHORT).show();
+			finish();
+			return;
+		}
+		
+		ListView list = (ListView)findViewById(R.id.blame_list);
+		adapter = new BlameAdapter(this, blame);
+		list.setAdapter(adapter);
+		list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+
+			@Override
+			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+				LogEntry source = blame.getSource(position);
+				if (source != null) {
+					Toast.makeText(BlameActivity.this, source.getId().substring(0, 7) + " "
+							+ source.getDate() + "\n" + source.getSummary(),
+							Toast.LENGTH_LONG).show();
+				}
+			}
+		});
+		
+		if (blame.isComplete()) {
+			setTitle(name);
+		} else {
+			setTitle(getString(R.string.blame_computing, name));
+			task = new BlameTask();
+			task.execute();
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (task != null) {
+			task.cancel(false); // stops after current region
+		}
+	}
+	
+	/**
+	 * Compute blame, refresh list meanwhile.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class BlameTask extends AsyncTask<Void, Void, Boolean> {
+		
+		private long lastRefresh = SystemClock.uptimeMillis();
+
+		@Override
+		protected Boolean doInBackground(Void... params) {
+			try {
+				return blame.compute(new FileBlame.Listener() {
+					
+					@Override
+					public boolean onRegion() {
+						if (isCancelled()) {
+							return false;
+						}
+						long now = SystemClock.uptimeMillis();
+						if (now - lastRefresh >= REFRESH_MS) {
+							lastRefresh = now;
+							publishProgress();
+						}
+						return true;
+					}
+				});
+			} catch (GitError e) {
+				Log.e(TAG, "Can't blame");
+				return null;
+			}
+		}
+		
+		@Override
+		protected void onProgressUpdate(Void... values) {
+			adapter.notifyDataSetChanged();
+		}
+
+		@Override
+		protected void onPostExecute(Boolean result) {
+			task = null;
+			if (isFinishing()) {
+				return;
+			}
+			adapter.notifyDataSetChanged();
+			setTitle(name);
+			if (result == null) {
+				Toast.makeText(BlameActivity.this, R.string.msg_blame_failed,
+						Toast.LENGTH_SHORT).show();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Line rows: commit and author where it changes, then text.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	static class BlameAdapter extends BaseAdapter {
+		
+		private final LayoutInflater inflater;
+		private final String unknown;
+		private final FileBlame blame;
+		
+		BlameAdapter(Context context, FileBlame blame) {
+			this.inflater = LayoutInflater.from(context);
+			this.unknown = context.getString(R.string.blame_unknown);
+			this.blame = blame;
+		}
+
+		@Override
+		public int getCount() {
+			return blame.getLineCount();
+		}
+
+		@Override
+		public String getItem(int position) {
+			return blame.getLine(position);
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return position;
+		}
+
+		@Override
+		public View getView(int position, View view, ViewGroup parent) {
+			if (view == null) {
+				view = inflater.inflate(R.layout.blame_row, parent, false);
+			}
+			LogEntry source = blame.getSource(position);
+			String text;
+			if (source == null) {
+				text = unknown;
+			} else if ((position > 0) && (blame.getSource(position - 1) == source)) {
+				text = ""; // same commit as line above
+			} else {
+				text = source.getId().substring(0, 7) + " " + source.getAuthor();
+			}
+			((TextView)view.findViewById(R.id.blame_source)).setText(text);
+			((TextView)view.findViewById(R.id.blame_line)).setText(blame.getLine(position));
+			return view;
+		}
+		
+	}
+
+}
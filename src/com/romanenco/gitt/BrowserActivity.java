@@ -22,15 +22,20 @@ package com.romanenco.gitt;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.comparator.NameFileComparator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
 
 import com.romanenco.gitt.dao.DAO;
 import com.romanenco.gitt.dao.Repo;
+import com.romanenco.gitt.git.GitError;
 import com.romanenco.gitt.git.GitHelper;
+import com.romanenco.gitt.git.GitHelper.TreeEntry;
 import com.romanenco.gitt.R;
 
 import android.os.Bundle;
@@ -49,11 +54,13 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * Browse repo checked out to local file system.
@@ -61,6 +68,12 @@ import android.widget.TextView;
  * Use the same activity instance to browse source tree.
  * Open code viewer on file touch.
  * 
+ * Any branch/tag can be browsed without checkout: its tree is read
+ * from object database, files are not touched.
+ * Sparse repo, or repo without working tree, is browsed from object
+ * database too, so folders which are not checked out are listed,
+ * and files are read on demand.
+ * 
  * @author Andrew Romanenco
  *
  */
@@ -70,6 +83,7 @@ public class BrowserActivity extends ListActivity {
 	
 	public static final String REPO = "key_repo";
 	public static final String PATH = "key_path";
+	public static final String REVISION = "key_revision";
 	
 	private static final String FILTER = "filterbar.visibility";
 	
@@ -79,6 +93,11 @@ public class BrowserActivity extends ListActivity {
 	 */
 	private static Map<String, String> browseCache = new HashMap<String, String>();
 	
+	/**
+	 * Revision browsed for each repo, if not working tree.
+	 */
+	private static Map<String, String> revisionCache = new HashMap<String, String>();
+	
 	/**
 	 * Current repo, sent to every next step
 	 */
@@ -90,6 +109,11 @@ public class BrowserActivity extends ListActivity {
 	 */
 	private String path;
 	
+	/**
+	 * Branch/tag to browse from object database, null for working tree.
+	 */
+	private String revision;
+	
 	private FileListAdapter adapter;
 	private View filterBar;
 	private EditText filterText;
@@ -133,22 +157,89 @@ public class BrowserActivity extends ListActivity {
 			if (path == null) {
 				path = ".";
 			}
+			revision = revisionCache.get(current.getFolder());
 		} else {
 			current = (Repo)savedInstanceState.getSerializable(REPO);
 			path = savedInstanceState.getString(PATH);
+			revision = savedInstanceState.getString(REVISION);
 			filterBar.setVisibility(savedInstanceState.getInt(FILTER));
 		}
 		
+		getListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+
+			@Override
+			public boolean onItemLongClick(AdapterView<?> parent, View view,
+					int position, long id) {
+				String name = adapter.getItem(position);
+				if (name.equals("..")) {
+					return false;
+				}
+				showHistory(gitPath(name));
+				return true;
+			}
+		});
+		
 		updateTitleWithPath();
-		adapter = new FileListAdapter(this, current, path);
+		showFolder();
+	}
+	
+	/**
+	 * Show current path of current revision.
+	 * If revision can't be read, working tree is shown.
+	 */
+	private void showFolder() {
+		try {
+			adapter = new FileListAdapter(this, current, path, browsedRevision());
+		} catch (GitError e) {
+			Toast.makeText(this, R.string.git_error_generic, Toast.LENGTH_SHORT).show();
+			if (revision != null) {
+				switchRevision(null);
+			}
+			return;
+		}
 		getListView().setAdapter(adapter);
 	}
 	
+	/**
+	 * Revision to read from object database, or null for working tree.
+	 * 
+	 * @return
+	 */
+	private String browsedRevision() {
+		if ((revision == null) && current.isSparse()) {
+			return Constants.HEAD;
+		}
+		return revision;
+	}
+	
+	/**
+	 * Browse other branch/tag from root, or working tree for null.
+	 * 
+	 * @param rev
+	 */
+	private void switchRevision(String rev) {
+		revision = rev;
+		path = ".";
+		if (rev == null) {
+			revisionCache.remove(current.getFolder());
+		} else {
+			revisionCache.put(current.getFolder(), rev);
+		}
+		updateTitleWithPath();
+		showFilterBar(false);
+		showFolder();
+	}
+	
 	private void updateTitleWithPath() {
 		int index = path.lastIndexOf("/");
 		if (index == -1) {
-			//reading branch name in main thread...
-			String branch = GitHelper.currentBranchName(this.getFilesDir() + "/" + current.getFolder()); 
+			String branch;
+			if (revision != null) {
+				branch = Repository.shortenRefName(revision);
+			} else {
+				//reading branch name in main thread...
+				branch = GitHelper.currentBranchName(this.getFilesDir() + "/" + current.getFolder());
+			}
 			this.setTitle("(" + branch + ")/.");
 		} else {
 			this.setTitle(".." + path.substring(index));
@@ -167,14 +258,21 @@ public class BrowserActivity extends ListActivity {
 			}
 			updateTitleWithPath();
 			showFilterBar(false);
-			adapter = new FileListAdapter(this, current, path);
-			getListView().setAdapter(adapter);
+			showFolder();
+		} else if (browsedRevision() != null) {
+			Intent next = new Intent(this, CodeViewActivity.class);
+			next.putExtra(CodeViewActivity.REPO_PATH_KEY, getFilesDir() + "/" + current.getFolder());
+			next.putExtra(CodeViewActivity.BLOB_KEY, adapter.getItemBlob(position));
+			next.putExtra(CodeViewActivity.NAME_KEY, adapter.getItem(position));
+			putHistoryExtras(next, adapter.getItem(position));
+			startActivity(next);
 		} else {
 			Intent next = new Intent(this, CodeViewActivity.class);
 			File file = new File(this.getFilesDir(), current.getFolder());
 			file = new File(file, path);
 			file = new File(file, adapter.getItem(position));
 			next.putExtra(CodeViewActivity.FILE_KEY, file);
+			putHistoryExtras(next, adapter.getItem(position));
 			startActivity(next);
 		}
 	}
@@ -184,12 +282,17 @@ public class BrowserActivity extends ListActivity {
 		super.onSaveInstanceState(outState);
 		outState.putSerializable(REPO, current);
 		outState.putSerializable(PATH, path);
+		outState.putString(REVISION, revision);
 		outState.putInt(FILTER, filterBar.getVisibility());
 	}
 
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		getMenuInflater().inflate(R.menu.browser, menu);
+		boolean objectsOnly = current.isObjectsOnly();
+		menu.findItem(R.id.browser_sparse).setVisible(!objectsOnly);
+		menu.findItem(R.id.browser_drop_worktree).setVisible(!objectsOnly);
+		menu.findItem(R.id.browser_restore_worktree).setVisible(objectsOnly);
 		return true;
 	}
 	
@@ -204,6 +307,18 @@ public class BrowserActivity extends ListActivity {
 			co.putExtra(CheckoutActivity.REPO, current);
 			startActivity(co);
 			break;
+		case R.id.browser_browse_ref:
+			pickRevision();
+			break;
+		case R.id.browser_sparse:
+			editSparse();
+			break;
+		case R.id.browser_drop_worktree:
+			setObjectsOnly(true);
+			break;
+		case R.id.browser_restore_worktree:
+			setObjectsOnly(false);
+			break;
 		case R.id.browser_menu_pull:
 			pullFromOrigin();
 			break;
@@ -215,10 +330,54 @@ public class BrowserActivity extends ListActivity {
 			logView.putExtra(LogViewActivity.REPO, current);
 			startActivity(logView);
 			break;
+		case R.id.browser_folder_history:
+			showHistory(gitPath(null));
+			break;
 		}
 		return super.onOptionsItemSelected(item);
 	}
 	
+	/**
+	 * Path of current folder or its item, relative to repo root.
+	 * 
+	 * @param name null for current folder
+	 * @return null for repo root
+	 */
+	private String gitPath(String name) {
+		String folder = path.equals(".") ? null : path.substring(2);
+		if (name == null) {
+			return folder;
+		}
+		return (folder == null) ? name : folder + "/" + name;
+	}
+	
+	/**
+	 * Commits of a path, starting from browsed revision.
+	 * 
+	 * @param gitPath null for whole repo
+	 */
+	private void showHistory(String gitPath) {
+		Intent logView = new Intent(this, LogViewActivity.class);
+		logView.putExtra(LogViewActivity.REPO, current);
+		if (gitPath != null) {
+			logView.putExtra(LogViewActivity.PATH, gitPath);
+			logView.putExtra(LogViewActivity.REVISION, revision);
+		}
+		startActivity(logView);
+	}
+	
+	/**
+	 * Let code view show history of a file.
+	 * 
+	 * @param next
+	 * @param name
+	 */
+	private void putHistoryExtras(Intent next, String name) {
+		next.putExtra(CodeViewActivity.REPO_KEY, current);
+		next.putExtra(CodeViewActivity.GIT_PATH_KEY, gitPath(name));
+		next.putExtra(CodeViewActivity.REVISION_KEY, revision);
+	}
+	
 	private void deleteThisRepo() {
 		AlertDialog dlg = new AlertDialog.Builder(this)
 			.setMessage(R.string.confirm_repo_delete)
@@ -310,6 +469,89 @@ public class BrowserActivity extends ListActivity {
 		
 	}
 	
+	/**
+	 * Edit folders to check out, and update working tree in background.
+	 */
+	private void editSparse() {
+		final EditText folders = new EditText(this);
+		folders.setInputType(InputType.TYPE_CLASS_TEXT|InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+		folders.setHint(R.string.sparse_hint);
+		folders.setText(current.getSparse());
+		AlertDialog dlg = new AlertDialog.Builder(this)
+			.setTitle(R.string.action_sparse)
+			.setPositiveButton(getString(android.R.string.ok),
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						current.setSparse(folders.getText().toString());
+						if (!current.isSparse()) {
+							current.setSparse(null);
+						}
+						updateWorktree();
+					}
+				}
+				)
+			.setNegativeButton(getString(android.R.string.cancel),
+				null
+				)
+			.create();
+		dlg.setCanceledOnTouchOutside(false);
+		dlg.setView(folders);
+		dlg.show();
+	}
+	
+	/**
+	 * Remove or restore all files, objects are kept.
+	 * 
+	 * @param objectsOnly
+	 */
+	private void setObjectsOnly(boolean objectsOnly) {
+		current.setObjectsOnly(objectsOnly);
+		updateWorktree();
+	}
+	
+	/**
+	 * Save working tree settings and update files in background.
+	 */
+	private void updateWorktree() {
+		current.setState(Repo.State.Busy);
+		DAO dao = new DAO(this);
+		dao.open(true);
+		dao.updateSparse(current.getFolder(), current.getSparse());
+		dao.updateObjectsOnly(current.getFolder(), current.isObjectsOnly());
+		dao.updateState(current.getFolder(), Repo.State.Busy);
+		dao.close();
+		Intent sparse = new Intent(this, GitService.class);
+		sparse.putExtra(GitService.COMMAND, GitService.Command.Sparse);
+		sparse.putExtra(GitService.REPO, current);
+		startService(sparse);
+		Intent main = new Intent(this, MainActivity.class);
+		main.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+		startActivity(main);
+	}
+	
+	/**
+	 * Ask for branch/tag to browse. First item is working tree.
+	 */
+	private void pickRevision() {
+		final List<String> refs = new ArrayList<String>();
+		GitHelper.readBranchesAndTags(refs, getFilesDir() + "/" + current.getFolder());
+		Collections.sort(refs);
+		String[] items = new String[refs.size() + 1];
+		items[0] = getString(R.string.working_tree);
+		for (int i = 0; i < refs.size(); i++) {
+			items[i + 1] = Repository.shortenRefName(refs.get(i));
+		}
+		AlertDialog dlg = new AlertDialog.Builder(this)
+			.setTitle(R.string.action_browse_ref)
+			.setItems(items, new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						switchRevision((which == 0) ? null : refs.get(which - 1));
+					}
+				})
+			.create();
+		dlg.show();
+	}
+	
 	private void showFilterBar(boolean show) {
 		if (show) {
 			filterBar.setVisibility(View.VISIBLE);
@@ -332,6 +574,7 @@ public class BrowserActivity extends ListActivity {
 		private Context context;
 		private List<Item> allItems;
 		private Map<String, String> fileSizes; //size is cached
+		private Map<String, String> blobs; // file name to blob id, revision only
 		
 		private List<Item> filteredList;
 
@@ -339,28 +582,42 @@ public class BrowserActivity extends ListActivity {
 		 * @param context
 		 * @param repo
 		 * @param folder - relative to repo root.
+		 * @param revision - branch/tag, or null for working tree
+		 * @throws GitError if revision can't be read
 		 */
-		public FileListAdapter(Context context, Repo repo, String folder) {
-			Log.d(TAG, "Reading: " + folder);
+		public FileListAdapter(Context context, Repo repo, String folder, String revision) throws GitError {
+			Log.d(TAG, "Reading: " + folder + " at " + revision);
 			this.context = context;
-			browseCache.put(repo.getFolder(), folder);
-			File repoDir = new File(context.getFilesDir(), repo.getFolder());
-			File dir = new File(repoDir, folder);
-			File[] files = dir.listFiles();
-			Arrays.sort(files, NameFileComparator.NAME_COMPARATOR);
 			allItems = new ArrayList<Item>();
 			fileSizes = new HashMap<String, String>();
+			blobs = new HashMap<String, String>();
 			if (!folder.equals(".")) {
 				allItems.add(new Item("..", true));
 			}
-			for (File f: files) {
-				if (".git".equals(f.getName())) continue;
-				boolean isDir = f.isDirectory();
-				allItems.add(new Item(f.getName(), isDir));
-				if (!isDir) {
-					fileSizes.put(f.getName(), Utils.formatFileSize(BrowserActivity.this, f.length()));
+			File repoDir = new File(context.getFilesDir(), repo.getFolder());
+			if (revision != null) {
+				List<TreeEntry> entries = GitHelper.listTree(repoDir.getPath(), revision, folder);
+				for (TreeEntry entry: entries) {
+					allItems.add(new Item(entry.name, entry.folder));
+					if (!entry.folder) {
+						fileSizes.put(entry.name, Utils.formatFileSize(BrowserActivity.this, entry.size));
+						blobs.put(entry.name, entry.id);
+					}
+				}
+			} else {
+				File dir = new File(repoDir, folder);
+				File[] files = dir.listFiles();
+				Arrays.sort(files, NameFileComparator.NAME_COMPARATOR);
+				for (File f: files) {
+					if (".git".equals(f.getName())) continue;
+					boolean isDir = f.isDirectory();
+					allItems.add(new Item(f.getName(), isDir));
+					if (!isDir) {
+						fileSizes.put(f.getName(), Utils.formatFileSize(BrowserActivity.this, f.length()));
+					}
 				}
 			}
+			browseCache.put(repo.getFolder(), folder);
 			filteredList = allItems;
 		}
 		
@@ -395,6 +652,10 @@ public class BrowserActivity extends ListActivity {
 		public String getItemSize(int position) {
 			return fileSizes.get(position);
 		}
+		
+		public String getItemBlob(int position) {
+			return blobs.get(filteredList.get(position).name);
+		}
 
 		@Override
 		public long getItemId(int position) {
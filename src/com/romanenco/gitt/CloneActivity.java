@@ -20,19 +20,32 @@
 package com.romanenco.gitt;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.romanenco.gitt.dao.DAO;
 import com.romanenco.gitt.dao.Repo;
+import com.romanenco.gitt.git.AuthFailError;
+import com.romanenco.gitt.git.GitError;
 import com.romanenco.gitt.git.GitHelper;
 import com.romanenco.gitt.R;
 
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.text.TextUtils;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * Handle user input for new repo creation and editing failed one.
@@ -43,6 +56,7 @@ import android.widget.EditText;
 public class CloneActivity extends Activity {
 
 	public static final String REPO = "key_repo";
+	private static final String REFS = "key_refs";
 
 	/**
 	 * Not null if this is edit request
@@ -54,6 +68,16 @@ public class CloneActivity extends Activity {
 	private EditText userNameView;
 	private EditText passwdView;
 	private Button deleteButton;
+	private Spinner profileView;
+	private Button pickRefsButton;
+	private TextView refsView;
+	private EditText sparseView;
+	private CheckBox objectsOnlyView;
+	
+	/**
+	 * Refs to clone for Selected profile
+	 */
+	private ArrayList<String> selectedRefs = new ArrayList<String>();
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -65,6 +89,11 @@ public class CloneActivity extends Activity {
 		userNameView = (EditText) findViewById(R.id.clone_username);
 		passwdView = (EditText) findViewById(R.id.clone_passwd);
 		deleteButton = (Button) findViewById(R.id.clone_delete);
+		profileView = (Spinner) findViewById(R.id.clone_profile);
+		pickRefsButton = (Button) findViewById(R.id.clone_pick_refs);
+		refsView = (TextView) findViewById(R.id.clone_refs);
+		sparseView = (EditText) findViewById(R.id.clone_sparse);
+		objectsOnlyView = (CheckBox) findViewById(R.id.clone_objects_only);
 
 		current = (Repo) getIntent().getSerializableExtra(REPO);
 		if (current != null) {
@@ -72,7 +101,34 @@ public class CloneActivity extends Activity {
 			addressView.setText(current.getAddress());
 			userNameView.setText(current.getUserName());
 			deleteButton.setVisibility(View.VISIBLE);
+			profileView.setSelection(current.getProfile().ordinal());
+			sparseView.setText(current.getSparse());
+			objectsOnlyView.setChecked(current.isObjectsOnly());
+			if (current.getProfile() == Repo.Profile.Selected) {
+				selectedRefs.addAll(current.getRefList());
+			}
 		}
+		
+		profileView.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+
+			@Override
+			public void onItemSelected(AdapterView<?> parent, View view,
+					int position, long id) {
+				updateRefsViews();
+			}
+
+			@Override
+			public void onNothingSelected(AdapterView<?> parent) {}
+		});
+		pickRefsButton.setOnClickListener(
+				new View.OnClickListener() {
+
+					@Override
+					public void onClick(View v) {
+						pickRefs();
+					}
+				});
+		updateRefsViews();
 
 		findViewById(R.id.clone_btn_clone).setOnClickListener(
 				new View.OnClickListener() {
@@ -95,15 +151,84 @@ public class CloneActivity extends Activity {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	protected void onRestoreInstanceState(Bundle savedInstanceState) {
 		super.onRestoreInstanceState(savedInstanceState);
 		current = (Repo) savedInstanceState.getSerializable(REPO);
+		selectedRefs = (ArrayList<String>) savedInstanceState.getSerializable(REFS);
+		updateRefsViews();
 	}
 
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
 		outState.putSerializable(REPO, current);
+		outState.putSerializable(REFS, selectedRefs);
+	}
+	
+	private Repo.Profile selectedProfile() {
+		return Repo.Profile.values()[profileView.getSelectedItemPosition()];
+	}
+	
+	private void updateRefsViews() {
+		if (selectedProfile() == Repo.Profile.Selected) {
+			pickRefsButton.setVisibility(View.VISIBLE);
+			refsView.setVisibility(View.VISIBLE);
+			refsView.setText(getString(R.string.refs_picked, selectedRefs.size()));
+		} else {
+			pickRefsButton.setVisibility(View.GONE);
+			refsView.setVisibility(View.GONE);
+		}
+	}
+	
+	/**
+	 * Read remote refs and let user pick what to clone.
+	 */
+	private void pickRefs() {
+		addressView.setError(null);
+		String address = addressView.getText().toString();
+		if (TextUtils.isEmpty(address)) {
+			addressView.setError(getString(R.string.error_empty));
+			addressView.requestFocus();
+			return;
+		}
+		String username = userNameView.getText().toString();
+		String passwd = passwdView.getText().toString();
+		if (TextUtils.isEmpty(username) || TextUtils.isEmpty(passwd)) {
+			username = null;
+			passwd = null;
+		}
+		new RemoteRefsTask().execute(address, username, passwd);
+	}
+	
+	private void showRefsPicker(final List<String> refs) {
+		String[] names = new String[refs.size()];
+		final boolean[] checked = new boolean[refs.size()];
+		for (int i = 0; i < names.length; i++) {
+			String ref = refs.get(i);
+			names[i] = ref.startsWith("refs/heads/") ? ref.substring(11) : ref.substring(5);
+			checked[i] = selectedRefs.contains(ref);
+		}
+		new AlertDialog.Builder(this)
+			.setTitle(R.string.clone_profile)
+			.setMultiChoiceItems(names, checked,
+				new DialogInterface.OnMultiChoiceClickListener() {
+					public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+						checked[which] = isChecked;
+					}
+				})
+			.setPositiveButton(getString(android.R.string.ok),
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						selectedRefs.clear();
+						for (int i = 0; i < checked.length; i++) {
+							if (checked[i]) selectedRefs.add(refs.get(i));
+						}
+						updateRefsViews();
+					}
+				})
+			.setNegativeButton(getString(android.R.string.cancel), null)
+			.show();
 	}
 
 	/**
@@ -162,10 +287,24 @@ public class CloneActivity extends Activity {
 
 		Intent clone = new Intent(this, GitService.class);
 		clone.putExtra(GitService.COMMAND, GitService.Command.Clone);
+		Repo.Profile profile = selectedProfile();
+		if ((profile == Repo.Profile.Selected) && selectedRefs.isEmpty()) {
+			Toast.makeText(this, R.string.error_no_refs, Toast.LENGTH_SHORT).show();
+			return;
+		}
 		Repo repo = new Repo();
 		repo.setState(Repo.State.New);
 		repo.setName(name);
 		repo.setAddress(address);
+		repo.setProfile(profile);
+		if (profile == Repo.Profile.Selected) {
+			repo.setRefList(selectedRefs);
+		}
+		repo.setSparse(sparseView.getText().toString());
+		if (!repo.isSparse()) {
+			repo.setSparse(null);
+		}
+		repo.setObjectsOnly(objectsOnlyView.isChecked());
 		repo.setFolder(Utils.makeFolderName(repo.getName()));
 		clone.putExtra(GitService.REPO, repo);
 		if (!TextUtils.isEmpty(username) && !TextUtils.isEmpty(passwd)) {
@@ -234,4 +373,45 @@ public class CloneActivity extends Activity {
 				});
 	}
 
+	/**
+	 * List remote branches and tags in background.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class RemoteRefsTask extends AsyncTask<String, Void, List<String>> {
+		
+		private ProgressDialog dialog;
+		private GitError error;
+		
+		@Override
+		protected void onPreExecute() {
+			dialog = ProgressDialog.show(CloneActivity.this, null,
+					getString(R.string.msg_reading_refs), true);
+		}
+
+		@Override
+		protected List<String> doInBackground(String... params) {
+			try {
+				return GitHelper.listRemoteRefs(params[0], params[1], params[2]);
+			} catch (GitError e) {
+				error = e;
+				return null;
+			}
+		}
+		
+		@Override
+		protected void onPostExecute(List<String> result) {
+			dialog.dismiss();
+			if (result != null) {
+				showRefsPicker(result);
+			} else if (error instanceof AuthFailError) {
+				Toast.makeText(CloneActivity.this, R.string.git_error_auth, Toast.LENGTH_LONG).show();
+			} else {
+				Toast.makeText(CloneActivity.this, R.string.git_error_connect, Toast.LENGTH_LONG).show();
+			}
+		}
+		
+	}
+
 }
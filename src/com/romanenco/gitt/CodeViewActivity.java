@@ -21,6 +21,9 @@ package com.romanenco.gitt;
 
 import java.io.File;
 
+import com.romanenco.gitt.dao.Repo;
+import com.romanenco.gitt.git.GitError;
+import com.romanenco.gitt.git.GitHelper;
 import com.romanenco.gitt.syntax.ImageHelper;
 import com.romanenco.gitt.syntax.SyntaxHelper;
 import com.romanenco.gitt.R;
@@ -39,6 +42,7 @@ import android.view.View;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.widget.EditText;
+import android.widget.Toast;
 
 /**
  * Shows file content in WebView with syntax highlighting.
@@ -48,6 +52,9 @@ import android.widget.EditText;
  * 
  * Special case when file is an image.
  * 
+ * File is either a path in working tree, or a blob of a repo, which
+ * is streamed to a cache file first.
+ * 
  * @author Andrew Romanenco
  * 
  */
@@ -57,6 +64,22 @@ public class CodeViewActivity extends Activity {
 
 	public static final String FILE_KEY = "FILE";
 	public static final String BRUSH_KEY = "BRUSH";
+	
+	/**
+	 * Blob to show instead of file: repo path, blob id and file name
+	 */
+	public static final String REPO_PATH_KEY = "REPO_PATH";
+	public static final String BLOB_KEY = "BLOB";
+	public static final String NAME_KEY = "NAME";
+	
+	/**
+	 * Optional, for history: repo, path relative to its root and
+	 * branch/tag browsed (null for HEAD)
+	 */
+	public static final String REPO_KEY = "REPO";
+	public static final String GIT_PATH_KEY = "GIT_PATH";
+	public static final String REVISION_KEY = "REVISION";
+	
 	private File file;
 	private String brush;
 
@@ -121,16 +144,36 @@ public class CodeViewActivity extends Activity {
 		webSettings.setBuiltInZoomControls(true);
 		webSettings.setUseWideViewPort(true);
 		file = (File)getIntent().getSerializableExtra(FILE_KEY);
+		String name;
+		if (file != null) {
+			name = getIntent().getStringExtra(NAME_KEY);
+			if (name == null) {
+				name = file.getName();
+			}
+		} else {
+			name = getIntent().getStringExtra(NAME_KEY);
+			try {
+				file = GitHelper.extractBlob(getIntent().getStringExtra(REPO_PATH_KEY),
+						getIntent().getStringExtra(BLOB_KEY), name,
+						new File(getCacheDir(), "blobs"));
+			} catch (GitError e) {
+				Toast.makeText(this, R.string.git_error_generic, Toast.LENGTH_SHORT).show();
+				finish();
+				return;
+			}
+		}
 
 		Log.d(TAG, "Openning: " + file);
-		String name = file.getName();
 		this.setTitle(name);
 		String extension = "";
 		int ind = name.lastIndexOf('.');
 		if (ind > 0) {
 			extension = name.substring(ind + 1);
 		}
-		brush = SyntaxHelper.getBrush(extension);
+		brush = getIntent().getStringExtra(BRUSH_KEY);
+		if (brush == null) {
+			brush = SyntaxHelper.getBrush(extension);
+		}
 		if (savedInstanceState != null) {
 			file = (File)savedInstanceState.getSerializable(FILE_KEY);
 			brush = savedInstanceState.getString(BRUSH_KEY);
@@ -150,6 +193,9 @@ public class CodeViewActivity extends Activity {
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		getMenuInflater().inflate(R.menu.code_view, menu);
+		boolean known = getIntent().getStringExtra(GIT_PATH_KEY) != null;
+		menu.findItem(R.id.code_view_action_history).setVisible(known);
+		menu.findItem(R.id.code_view_action_blame).setVisible(known);
 		return true;
 	}
 
@@ -162,6 +208,21 @@ public class CodeViewActivity extends Activity {
 		case R.id.code_view_action_find:
 			showFinderBar();
 			break;
+		case R.id.code_view_action_history:
+			Intent logView = new Intent(this, LogViewActivity.class);
+			logView.putExtra(LogViewActivity.REPO, getIntent().getSerializableExtra(REPO_KEY));
+			logView.putExtra(LogViewActivity.PATH, getIntent().getStringExtra(GIT_PATH_KEY));
+			logView.putExtra(LogViewActivity.REVISION, getIntent().getStringExtra(REVISION_KEY));
+			startActivity(logView);
+			break;
+		case R.id.code_view_action_blame:
+			Intent blame = new Intent(this, BlameActivity.class);
+			Repo repo = (Repo)getIntent().getSerializableExtra(REPO_KEY);
+			blame.putExtra(BlameActivity.REPO_PATH, getFilesDir() + "/" + repo.getFolder());
+			blame.putExtra(BlameActivity.GIT_PATH, getIntent().getStringExtra(GIT_PATH_KEY));
+			blame.putExtra(BlameActivity.REVISION, getIntent().getStringExtra(REVISION_KEY));
+			startActivity(blame);
+			break;
 		}
 		return super.onOptionsItemSelected(item);
 	}
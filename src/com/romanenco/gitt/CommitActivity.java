@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import java.io.File;
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.romanenco.gitt.git.CommitDiff;
+import com.romanenco.gitt.git.CommitDiff.Change;
+import com.romanenco.gitt.git.GitError;
+import com.romanenco.gitt.syntax.SyntaxHelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Commit details: message and changed files.
+ * 
+ * Files come from tree to tree diff against first parent. Diff of a
+ * file is computed only when tapped, and is shown by code view with
+ * diff syntax.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class CommitActivity extends Activity {
+	
+	private static final String TAG = "Commit";
+	
+	/**
+	 * Repo on disk and commit id.
+	 */
+	public static final String REPO_PATH = "REPO_PATH";
+	public static final String COMMIT = "COMMIT";
+	
+	private String commit;
+	private CommitDiff diff;
+	private FilesAdapter adapter;
+	private ListView list;
+	private TextView info;
+	private boolean busy; // diff is being computed
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_commit);
+		
+		commit = getIntent().getStringExtra(COMMIT);
+		setTitle(commit.substring(0, 7));
+		
+		list = (ListView)findViewById(R.id.commit_files);
+		View header = LayoutInflater.from(this).inflate(R.layout.commit_header, list, false);
+		info = (TextView)header.findViewById(R.id.commit_info);
+		info.setText(R.string.commit_loading);
+		list.addHeaderView(header, null, false);
+		adapter = new FilesAdapter(this);
+		list.setAdapter(adapter);
+		list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+
+			@Override
+			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+				position -= list.getHeaderViewsCount();
+				if ((position < 0) || (position >= adapter.getCount()) || busy) {
+					return;
+				}
+				busy = true;
+				new DiffTask(adapter.getItem(position)).execute();
+			}
+		});
+		
+		new LoadTask(getIntent().getStringExtra(REPO_PATH)).execute();
+	}
+	
+	private void showDiff(Change change, File file) {
+		String path = change.getPath();
+		Intent codeView = new Intent(this, CodeViewActivity.class);
+		codeView.putExtra(CodeViewActivity.FILE_KEY, file);
+		codeView.putExtra(CodeViewActivity.NAME_KEY, path.substring(path.lastIndexOf('/') + 1));
+		codeView.putExtra(CodeViewActivity.BRUSH_KEY, SyntaxHelper.Diff);
+		startActivity(codeView);
+	}
+	
+	/**
+	 * Read commit and its changed files.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class LoadTask extends AsyncTask<Void, Void, List<Change>> {
+		
+		private final String localPath;
+		private CommitDiff result;
+		
+		LoadTask(String localPath) {
+			this.localPath = localPath;
+		}
+
+		@Override
+		protected List<Change> doInBackground(Void... params) {
+			try {
+				result = CommitDiff.open(localPath, commit);
+				return result.getChanges();
+			} catch (GitError e) {
+				Log.e(TAG, "Can't read commit");
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(List<Change> changes) {
+			if (isFinishing()) {
+				return;
+			}
+			if (changes == null) {
+				Toast.makeText(CommitActivity.this, R.string.git_error_generic,
+						Toast.LENGTH_SHORT).show();
+				finish();
+				return;
+			}
+			diff = result;
+			setTitle(getString(R.string.commit_files_count, commit.substring(0, 7), changes.size()));
+			String date = DateFormat.getDateTimeInstance().format(
+					new Date(diff.getTime() * 1000L));
+			info.setText(diff.getAuthor() + ", " + date + "\n\n" + diff.getMessage().trim());
+			adapter.setChanges(changes);
+		}
+		
+	}
+	
+	/**
+	 * Compute diff of a file and write it for code view.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class DiffTask extends AsyncTask<Void, Void, File> {
+		
+		private final Change change;
+		
+		DiffTask(Change change) {
+			this.change = change;
+		}
+
+		@Override
+		protected File doInBackground(Void... params) {
+			try {
+				return diff.extractDiff(change, new File(getCacheDir(), "diffs"));
+			} catch (GitError e) {
+				Log.e(TAG, "Can't diff");
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(File result) {
+			busy = false;
+			if (isFinishing()) {
+				return;
+			}
+			if (result == null) {
+				Toast.makeText(CommitActivity.this, R.string.git_error_generic,
+						Toast.LENGTH_SHORT).show();
+				return;
+			}
+			showDiff(change, result);
+		}
+		
+	}
+	
+	/**
+	 * Changed files: change type letter and path.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	static class FilesAdapter extends BaseAdapter {
+		
+		private final LayoutInflater inflater;
+		private List<Change> changes = Collections.emptyList();
+		
+		FilesAdapter(Context context) {
+			this.inflater = LayoutInflater.from(context);
+		}
+		
+		void setChanges(List<Change> changes) {
+			this.changes = changes;
+			notifyDataSetChanged();
+		}
+
+		@Override
+		public int getCount() {
+			return changes.size();
+		}
+
+		@Override
+		public Change getItem(int position) {
+			return changes.get(position);
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return position;
+		}
+
+		@Override
+		public View getView(int position, View view, ViewGroup parent) {
+			if (view == null) {
+				view = inflater.inflate(R.layout.commit_file_row, parent, false);
+			}
+			Change change = changes.get(position);
+			String path;
+			switch (change.type) {
+			case RENAME:
+			case COPY:
+				path = change.oldPath + " \u2192 " + change.newPath;
+				break;
+			default:
+				path = change.getPath();
+			}
+			((TextView)view.findViewById(R.id.commit_file_type)).setText(
+					change.type.name().substring(0, 1));
+			((TextView)view.findViewById(R.id.commit_file_path)).setText(path);
+			return view;
+		}
+		
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Last errors of the app, for problem solving.
+ * 
+ * Fixed size ring: adding is cheap, oldest record is overwritten.
+ * Record keeps the exception itself; stack trace text is made
+ * only when it is viewed. Repo and command are taken from context
+ * of current thread, set by GitService for every command.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class ErrorLog {
+
+	/**
+	 * Max number of records kept.
+	 */
+	static final int SIZE = 32;
+
+	private static final ErrorLog instance = new ErrorLog(SIZE);
+
+	/**
+	 * Repo folder and command of current thread, if any.
+	 */
+	private static final ThreadLocal<String[]> context = new ThreadLocal<String[]>();
+
+	private final Record[] ring;
+	private int next; // slot for next record
+	private int count;
+
+	public static ErrorLog getInstance() {
+		return instance;
+	}
+
+	ErrorLog(int size) {
+		ring = new Record[size];
+	}
+
+	/**
+	 * Set repo and command for errors of current thread.
+	 * 
+	 * @param repo folder
+	 * @param command
+	 */
+	public static void setContext(String repo, String command) {
+		context.set(new String[] {repo, command});
+	}
+
+	public static void clearContext() {
+		context.remove();
+	}
+
+	/**
+	 * Record an error.
+	 * 
+	 * @param error
+	 */
+	public void add(Throwable error) {
+		String[] current = context.get();
+		Record record = new Record(System.currentTimeMillis(),
+				(current == null) ? null : current[0],
+				(current == null) ? null : current[1],
+				error);
+		synchronized (this) {
+			ring[next] = record;
+			next = (next + 1) % ring.length;
+			if (count < ring.length) count++;
+		}
+	}
+
+	/**
+	 * Records, newest first.
+	 * 
+	 * @return
+	 */
+	public synchronized List<Record> list() {
+		List<Record> result = new ArrayList<Record>(count);
+		for (int i = 1; i <= count; i++) {
+			result.add(ring[(next - i + ring.length) % ring.length]);
+		}
+		return result;
+	}
+
+	/**
+	 * Newest record.
+	 * 
+	 * @return null if there were no errors
+	 */
+	public synchronized Record getLast() {
+		return (count == 0) ? null : ring[(next - 1 + ring.length) % ring.length];
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < ring.length; i++) {
+			ring[i] = null;
+		}
+		next = 0;
+		count = 0;
+	}
+
+	/**
+	 * One error
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public static class Record {
+
+		public final long time;
+		public final String repo; // folder, null if not known
+		public final String command; // null if not known
+		public final Throwable error;
+		private String trace;
+
+		Record(long time, String repo, String command, Throwable error) {
+			this.time = time;
+			this.repo = repo;
+			this.command = command;
+			this.error = error;
+		}
+
+		/**
+		 * Simple class name of the exception.
+		 * 
+		 * @return
+		 */
+		public String getType() {
+			return error.getClass().getSimpleName();
+		}
+
+		/**
+		 * Exception and its causes, as "class: message".
+		 * 
+		 * @return
+		 */
+		public List<String> getCauses() {
+			List<String> causes = new ArrayList<String>();
+			Throwable e = error;
+			while ((e != null) && (causes.size() < 16)) { // cause loop guard
+				causes.add(e.toString());
+				e = e.getCause();
+			}
+			return causes;
+		}
+
+		/**
+		 * Full stack trace, rendered on first call.
+		 * 
+		 * @return
+		 */
+		public synchronized String getTrace() {
+			if (trace == null) {
+				StringWriter out = new StringWriter();
+				error.printStackTrace(new PrintWriter(out));
+				trace = out.toString();
+			}
+			return trace;
+		}
+	}
+
+}
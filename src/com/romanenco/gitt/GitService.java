@@ -19,23 +19,46 @@
 
 package com.romanenco.gitt;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 
 import com.romanenco.gitt.dao.DAO;
+import com.romanenco.gitt.dao.JournalEntry;
 import com.romanenco.gitt.dao.Repo;
 import com.romanenco.gitt.git.AuthFailError;
+import com.romanenco.gitt.git.CancelledError;
+import com.romanenco.gitt.git.CommitIndex;
 import com.romanenco.gitt.git.ConnectionError;
 import com.romanenco.gitt.git.GitError;
 import com.romanenco.gitt.git.GitHelper;
+import com.romanenco.gitt.git.GitHelper.Cloned;
+import com.romanenco.gitt.git.GitHelper.StorageSize;
 import com.romanenco.gitt.git.NoHeadError;
 import com.romanenco.gitt.git.NotGitRepoError;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -43,10 +66,21 @@ import android.widget.Toast;
  * Service to handle GIT repo operations in background. Updates UI with
  * broadcast with progress.
  * 
+ * Commands run on a bounded thread pool. Commands for the same repo
+ * are queued and run one by one in order received; different repos
+ * run in parallel. User commands start before background ones.
+ * Repeated commands waiting in a repo queue are coalesced.
+ * 
+ * Sync pulls a list of repos as background commands, with its own
+ * limit of parallel pulls, and collects results into a SyncReport.
+ * 
+ * Clone and pull schedule background gc when a repo has too many
+ * loose objects or packs.
+ * 
  * @author Andrew Romanenco
  * 
  */
-public class GitService extends IntentService {
+public class GitService extends Service {
 
 	static final String TAG = "GitService";
 
@@ -54,11 +88,11 @@ public class GitService extends IntentService {
 	 * Supported operations
 	 */
 	public enum Command {
-		Clone, Checkout, Pull, Delete
+		Clone, Checkout, Pull, Delete, Cancel, Sync, Gc, Sparse, Index
 	}
 
 	public static final String BROADCAST_REFRESH = "com.romanenco.gitviewer.GitService.REFRESH";
-	public static final String BROADCAST_PROGRESS = "com.romanenco.gitviewer.GitService.PROGRESS";
+	public static final String BROADCAST_SYNC = "com.romanenco.gitviewer.GitService.SYNC";
 
 	/**
 	 * Every intent must have command
@@ -77,26 +111,89 @@ public class GitService extends IntentService {
 	public static final String AUTH_PASSWD = "key_password";
 
 	/**
-	 * Progress bean sent with broadcast
+	 * When command is checkout: name of branch/tag
 	 */
-	public static final String BROADCAST_PROGRESS_DATA = "key_progress_data";
+	public static final String SWITCH_TO = "key_co";
 
 	/**
-	 * When command is checkout: name of branch/tag
+	 * Optional boolean: true for maintenance work nobody waits for.
+	 * Such commands start only when no user command is waiting.
 	 */
-	public static final String SWITCH_TO = "key_co";
+	public static final String BACKGROUND = "key_background";
+
+	/**
+	 * When command is sync: ArrayList of repos to pull
+	 */
+	public static final String SYNC_REPOS = "key_sync_repos";
 
 	/**
-	 * Seq. number for broadcast ordering in MainActivity
+	 * When command is sync: HashMap of repo folder to password
 	 */
-	private static int sequenceNumber = 0;
+	public static final String SYNC_PASSWORDS = "key_sync_passwords";
+
+	/**
+	 * SyncReport sent with sync broadcast
+	 */
+	public static final String BROADCAST_SYNC_DATA = "key_sync_data";
+
+	/**
+	 * Set on pulls started by sync: results go to the report, not toasts.
+	 */
+	private static final String SYNC = "key_sync";
+
+	/**
+	 * Service start id of a command, set when command is received.
+	 */
+	private static final String START_ID = "key_start_id";
+
+	/**
+	 * Queue stats: commands waiting to start, total and max wait in ms.
+	 */
+	private static final AtomicInteger queueDepth = new AtomicInteger();
+	private static final AtomicLong totalWait = new AtomicLong();
+	private static final AtomicLong maxWait = new AtomicLong();
+	private static final AtomicInteger started = new AtomicInteger();
+
+	/**
+	 * Current or last sync, main thread only.
+	 */
+	private static SyncReport syncReport;
+
+	/**
+	 * Final transfer figures of last clone/pull by repo folder.
+	 */
+	private static final Map<String, TransferStats> transfers =
+			new ConcurrentHashMap<String, TransferStats>();
 
 	private DAO dao;
 	private Handler handler;
+	private ThreadPoolExecutor executor;
 
-	public GitService() {
-		super("GitClone");
-	}
+	/**
+	 * Repo folder to commands not started yet. If repo is not running
+	 * a command, first one is given to the pool; it stays here until it
+	 * starts, so it can still be merged or reprioritized.
+	 * Folder is present while it has a running or waiting command.
+	 * Guarded by itself: tasks leave it in worker threads.
+	 */
+	private final Map<String, LinkedList<Task>> repoQueues = new HashMap<String, LinkedList<Task>>();
+	private final Set<String> runningRepos = new HashSet<String>(); // guarded by repoQueues
+	private int pending; // received and not finished, main thread only
+	private int lastStartId;
+
+	/**
+	 * Repo folder to start id of its last cancel command.
+	 * Every command of the repo received before it is cancelled.
+	 */
+	private final Map<String, Integer> cancels = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Sync pulls not yet given to the pool, and number of given ones.
+	 * Main thread only.
+	 */
+	private final LinkedList<Intent> syncQueue = new LinkedList<Intent>();
+	private int syncRunning;
+	private int syncLimit;
 
 	@Override
 	public void onCreate() {
@@ -104,18 +201,393 @@ public class GitService extends IntentService {
 		dao = new DAO(this);
 		dao.open(true);
 		handler = new Handler();
+		int threads = new Settings(this).getGitThreads();
+		Log.d(TAG, "Pool size: " + threads);
+		// only Tasks are executed, they are ordered by priority
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "GitService-" + count.incrementAndGet());
+			}
+		});
 	}
 
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
+		executor.shutdown();
 		dao.close();
 	}
 
 	@Override
-	protected void onHandleIntent(Intent intent) {
+	public IBinder onBind(Intent intent) {
+		return null;
+	}
+
+	/**
+	 * Cancel is handled here, not in the queue,
+	 * to reach commands which are running or waiting.
+	 */
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		lastStartId = startId;
+		if (intent == null) {
+			stopIfIdle();
+			return START_NOT_STICKY;
+		}
+		intent.putExtra(START_ID, startId);
+		if (intent.getSerializableExtra(COMMAND) == Command.Cancel) {
+			Repo repo = (Repo) intent.getSerializableExtra(REPO);
+			Log.d(TAG, "Cancel: " + repo.getFolder());
+			cancels.put(repo.getFolder(), startId);
+			stopIfIdle();
+		} else if (intent.getSerializableExtra(COMMAND) == Command.Sync) {
+			startSync(intent);
+		} else {
+			schedule(new Task(intent));
+		}
+		return START_NOT_STICKY;
+	}
+
+	/**
+	 * Run now if repo is not busy with other command, or queue.
+	 * 
+	 * @param task
+	 */
+	private void schedule(Task task) {
+		synchronized (repoQueues) {
+			LinkedList<Task> queue = repoQueues.get(task.folder);
+			if (queue == null) {
+				queue = new LinkedList<Task>();
+				repoQueues.put(task.folder, queue);
+			}
+			Task head = queue.peek();
+			boolean merged = coalesce(queue, task);
+			if (!merged) {
+				pending++;
+				queueDepth.incrementAndGet();
+				queue.add(task);
+			}
+			if (!runningRepos.contains(task.folder)) {
+				submitHead(queue, head);
+			}
+			if (!merged) {
+				return;
+			}
+		}
+		stopIfIdle();
+	}
+
+	/**
+	 * Give first waiting task of idle repo to the pool, after queue
+	 * was changed. Previous first task is taken back if it was dropped,
+	 * or resubmitted, as merge may have raised its priority.
+	 * 
+	 * @param queue
+	 * @param oldHead first task before change, already in the pool
+	 */
+	private void submitHead(LinkedList<Task> queue, Task oldHead) {
+		Task head = queue.peek();
+		if (head == oldHead) {
+			if ((head != null) && executor.remove(head)) {
+				executor.execute(head);
+			}
+			return;
+		}
+		if (oldHead != null) {
+			executor.remove(oldHead); // if it starts anyway, it sees it is not first
+		}
+		if (head != null) {
+			executor.execute(head);
+		}
+	}
+
+	/**
+	 * Take task out of its repo queue when it starts.
+	 * Called in worker thread.
+	 * 
+	 * @param task
+	 * @return false if task was dropped meanwhile and must not run
+	 */
+	private boolean starting(Task task) {
+		synchronized (repoQueues) {
+			LinkedList<Task> queue = repoQueues.get(task.folder);
+			if ((queue == null) || (queue.peek() != task)
+					|| runningRepos.contains(task.folder)) {
+				return false;
+			}
+			queue.poll();
+			runningRepos.add(task.folder);
+			return true;
+		}
+	}
+
+	/**
+	 * Merge new command with commands waiting for the same repo.
+	 * - same command as the last waiting one (pull, clone, delete): merged;
+	 * - checkout after waiting checkout: replaces it;
+	 * - delete: drops all waiting commands.
+	 * 
+	 * @param queue
+	 * @param task
+	 * @return true if task was merged and must not be queued
+	 */
+	private boolean coalesce(LinkedList<Task> queue, Task task) {
+		if (task.command == Command.Delete) {
+			while (!queue.isEmpty() && (queue.getLast().command != Command.Delete)) {
+				drop(queue.removeLast());
+			}
+		} else if (task.command == Command.Checkout) {
+			if (!queue.isEmpty() && (queue.getLast().command == Command.Checkout)) {
+				task.merge(queue.getLast());
+				drop(queue.removeLast());
+			}
+		}
+		if (queue.isEmpty()) {
+			return false;
+		}
+		Task last = queue.getLast();
+		if (last.command == task.command) {
+			Log.d(TAG, "Coalesced: " + task.command);
+			if (task.sync && last.sync) {
+				// same repo twice in sync: counted once
+				syncRunning--;
+				syncReport.removeRepo();
+			}
+			last.merge(task);
+			return true;
+		}
+		return false;
+	}
+
+	private void drop(Task task) {
+		Log.d(TAG, "Superseded: " + task.command);
+		pending--;
+		queueDepth.decrementAndGet();
+		if (task.sync) {
+			syncDone(new SyncReport.Result(task.name, SyncReport.Outcome.Cancelled,
+					getString(R.string.msg_cancelled)));
+		}
+	}
+
+	/**
+	 * Task is done: start next one of the same repo.
+	 * 
+	 * @param task
+	 */
+	private void finished(Task task) {
+		pending--;
+		if (task.sync) {
+			SyncReport.Result result = task.result;
+			if (result == null) {
+				result = new SyncReport.Result(task.name, SyncReport.Outcome.Failed,
+						getString(R.string.git_error_generic));
+			}
+			syncDone(result);
+		}
+		synchronized (repoQueues) {
+			runningRepos.remove(task.folder);
+			LinkedList<Task> queue = repoQueues.get(task.folder);
+			Task next = queue.peek();
+			if (next == null) {
+				repoQueues.remove(task.folder);
+			} else {
+				executor.execute(next);
+			}
+		}
+		stopIfIdle();
+	}
+
+	private void stopIfIdle() {
+		if ((pending == 0) && syncQueue.isEmpty()) {
+			stopSelf(lastStartId);
+		}
+	}
+
+	/**
+	 * Queue pulls for all repos of the command.
+	 * Repos are added to the running sync, if any.
+	 * Caller marks repos as busy.
+	 * 
+	 * @param intent
+	 */
+	@SuppressWarnings("unchecked")
+	private void startSync(Intent intent) {
+		List<Repo> repos = (List<Repo>) intent.getSerializableExtra(SYNC_REPOS);
+		Map<String, String> passwords = (Map<String, String>) intent.getSerializableExtra(SYNC_PASSWORDS);
+		if ((syncReport == null) || syncReport.isFinished()) {
+			syncReport = new SyncReport();
+			syncLimit = new Settings(this).getSyncParallelism();
+		}
+		for (Repo repo: repos) {
+			Intent pull = new Intent(this, GitService.class);
+			pull.putExtra(COMMAND, Command.Pull);
+			pull.putExtra(REPO, repo);
+			pull.putExtra(BACKGROUND, true);
+			pull.putExtra(SYNC, true);
+			pull.putExtra(START_ID, intent.getIntExtra(START_ID, 0));
+			if ((passwords != null) && passwords.containsKey(repo.getFolder())) {
+				pull.putExtra(AUTH_PASSWD, passwords.get(repo.getFolder()));
+			}
+			syncQueue.add(pull);
+			syncReport.addRepo();
+		}
+		Log.d(TAG, "Sync: " + syncReport.getTotal() + " repos, " + syncLimit + " at once");
+		notifySync();
+		syncNext();
+		stopIfIdle();
+	}
+
+	private void syncNext() {
+		while ((syncRunning < syncLimit) && !syncQueue.isEmpty()) {
+			syncRunning++;
+			schedule(new Task(syncQueue.poll()));
+		}
+	}
+
+	private void syncDone(SyncReport.Result result) {
+		syncRunning--;
+		syncReport.add(result);
+		notifySync();
+		syncNext();
+	}
+
+	/**
+	 * Current or last sync.
+	 * 
+	 * @return null if there was no sync since start
+	 */
+	public static SyncReport getSyncReport() {
+		return syncReport;
+	}
+
+	/**
+	 * Figures of last finished clone or pull of a repo.
+	 * 
+	 * @param folder
+	 * @return null if there was none since start
+	 */
+	public static TransferStats getLastTransfer(String folder) {
+		return transfers.get(folder);
+	}
+
+	/**
+	 * Save journal record of an operation.
+	 * Phases are derived from jgit tasks: time till first task is connect
+	 * (with ref advertisement), receive and resolve are their tasks, rest
+	 * of transfer is negotiate (remote counting and compressing), and time
+	 * after transfer is checkout. Without transfer stats whole time is
+	 * checkout for checkout command, and no phases for others.
+	 * 
+	 * @param command
+	 * @param repo
+	 * @param start
+	 * @param stats null if operation has no transfer
+	 * @param result
+	 * @param error null if none
+	 */
+	private void journal(Command command, Repo repo, long start, TransferStats stats,
+			JournalEntry.Result result, GitError error) {
+		JournalEntry entry = new JournalEntry();
+		entry.setDate(start);
+		entry.setFolder(repo.getFolder());
+		entry.setName(repo.getName());
+		entry.setAddress(repo.getAddress());
+		entry.setCommand(command.name());
+		entry.setResult(result);
+		entry.setError((error == null) ? null : error.getClass().getSimpleName());
+		entry.setTime(System.currentTimeMillis() - start);
+		if (stats != null) {
+			String receiving = JGitText.get().receivingObjects;
+			String resolving = JGitText.get().resolvingDeltas;
+			long connect = entry.getTime();
+			long receive = 0;
+			long resolve = 0;
+			long transferEnd = -1;
+			for (TransferStats.Phase phase: stats.getPhases()) {
+				connect = Math.min(connect, phase.start);
+				if (receiving.equals(phase.name)) {
+					receive += phase.time;
+					entry.setObjects(entry.getObjects() + phase.units);
+				} else if (resolving.equals(phase.name)) {
+					resolve += phase.time;
+					entry.setDeltas(entry.getDeltas() + phase.units);
+				} else {
+					continue;
+				}
+				transferEnd = Math.max(transferEnd, phase.start + phase.time);
+			}
+			entry.setConnect(connect);
+			if (transferEnd >= 0) {
+				entry.setReceive(receive);
+				entry.setResolve(resolve);
+				entry.setNegotiate(Math.max(0, transferEnd - connect - receive - resolve));
+				entry.setCheckout(Math.max(0, entry.getTime() - transferEnd));
+			}
+			entry.setBytes(stats.getBytes());
+		} else if (command == Command.Checkout) {
+			entry.setCheckout(entry.getTime());
+		}
+		dao.addJournal(entry);
+	}
+
+	/**
+	 * Keep final figures of an operation.
+	 * 
+	 * @param folder
+	 * @param pm
+	 */
+	private void saveTransfer(String folder, Progress pm) {
+		TransferStats stats = pm.finish();
+		transfers.put(folder, stats);
+		Log.d(TAG, "Transfer: " + folder + ", " + stats);
+	}
+
+	/**
+	 * Commands waiting to start, for all repos.
+	 * 
+	 * @return
+	 */
+	public static int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Average time in ms from receiving a command to starting it.
+	 * 
+	 * @return
+	 */
+	public static long getAverageWait() {
+		int count = started.get();
+		return (count == 0) ? 0 : totalWait.get() / count;
+	}
+
+	public static long getMaxWait() {
+		return maxWait.get();
+	}
+
+	private boolean isCancelled(String folder, int startId) {
+		Integer cancelId = cancels.get(folder);
+		return (cancelId != null) && (cancelId > startId);
+	}
+
+	private void handleCommand(Task task) {
+		Intent intent = task.intent;
 		Command cmd = (Command) intent.getSerializableExtra(COMMAND);
 		Log.d(TAG, "Next command: " + cmd);
+		Repo repo = (Repo) intent.getSerializableExtra(REPO);
+		if ((cmd != Command.Delete)
+				&& isCancelled(repo.getFolder(), intent.getIntExtra(START_ID, 0))) {
+			Log.d(TAG, "Dropped: " + cmd);
+			cancelled(cmd, repo);
+			task.result = new SyncReport.Result(repo.getName(),
+					SyncReport.Outcome.Cancelled, getString(R.string.msg_cancelled));
+			return;
+		}
 		switch (cmd) {
 		case Clone:
 			clone(intent);
@@ -124,14 +596,46 @@ public class GitService extends IntentService {
 			checkout(intent);
 			break;
 		case Pull:
-			pull(intent);
+			task.result = pull(intent);
 			break;
 		case Delete:
 			delete(intent);
 			break;
+		case Gc:
+			gc(intent);
+			break;
+		case Sparse:
+			sparse(intent);
+			break;
+		case Index:
+			index(intent);
+			break;
+		default:
+			break;
 		}
 	}
 
+	/**
+	 * Return repo to consistent state after cancel.
+	 * Partially cloned repo is kept on disk, so clone can be resumed.
+	 * 
+	 * @param cmd
+	 * @param repo
+	 */
+	private void cancelled(Command cmd, Repo repo) {
+		if ((cmd == Command.Gc) || (cmd == Command.Index)) {
+			return; // repo state is not changed by gc or index
+		}
+		if (cmd == Command.Clone) {
+			repo.setState(Repo.State.Error);
+			repo.setError(getString(R.string.msg_cancelled));
+		} else {
+			repo.setState(Repo.State.Local);
+		}
+		dao.update(repo);
+		notifyRepoList();
+	}
+
 	/**
 	 * Expects repo to be already saved in DB as NEW.
 	 * Status of repo is updated when done (with or without error).
@@ -145,21 +649,42 @@ public class GitService extends IntentService {
 		Log.d(TAG, "Starting processing: " + repo.getName());
 
 		String path = this.getFilesDir().getPath() + "/" + repo.getFolder();
-		ProgressMonitor pm = new Progress(repo.getFolder());
+		Progress pm = new Progress(repo.getFolder(),
+				intent.getIntExtra(START_ID, 0));
+		long start = System.currentTimeMillis();
+		GitError error = null;
 
 		try {
-			GitHelper.clone(repo.getAddress(), path, repo.getUserName(),
-					passwd, pm);
-			long size = GitHelper.getRepoSize(path);
-			repo.setSize(size);
+			List<String> refs = null;
+			if (repo.getProfile() == Repo.Profile.Default) {
+				refs = new ArrayList<String>();
+			} else if (repo.getProfile() == Repo.Profile.Selected) {
+				refs = repo.getRefList();
+			}
+			Cloned cloned = GitHelper.clone(repo.getAddress(), path, repo.getUserName(),
+					passwd, refs, repo.getSparseList(), pm);
+			saveTransfer(repo.getFolder(), pm);
+			if (cloned.refs != null) {
+				repo.setRefList(cloned.refs);
+			}
+			dao.updateRemoteState(repo.getFolder(), cloned.remoteState);
+			StorageSize size = updateSize(repo, path, null, true);
+			checkMaintenance(repo, size);
+			scheduleIndex(repo);
 			repo.setState(Repo.State.Local);
 			repo.setError("");
 			Log.e(TAG, "DONE");
+		} catch (CancelledError e) {
+			journal(Command.Clone, repo, start, pm.finish(), JournalEntry.Result.Cancelled, null);
+			cancelled(Command.Clone, repo);
+			return;
 		} catch (ConnectionError e) {
+			error = e;
 			Log.e(TAG, "Git clone connect error");
 			repo.setState(Repo.State.Error);
 			repo.setError(getString(R.string.git_error_connect));
 		} catch (NotGitRepoError e) {
+			error = e;
 			Log.e(TAG, "Not a git repo");
 			repo.setState(Repo.State.Error);
 			// issue-12
@@ -170,14 +695,18 @@ public class GitService extends IntentService {
 				repo.setError(getString(R.string.git_error_not_git));
 			}
 		} catch (AuthFailError e) {
+			error = e;
 			Log.e(TAG, "Not authorised");
 			repo.setState(Repo.State.Error);
 			repo.setError(getString(R.string.git_error_auth));
 		} catch (GitError e) {
+			error = e;
 			Log.e(TAG, "Git clone error");
 			repo.setState(Repo.State.Error);
 			repo.setError(getString(R.string.git_error_generic));
 		}
+		journal(Command.Clone, repo, start, pm.finish(),
+				(error == null) ? JournalEntry.Result.Done : JournalEntry.Result.Failed, error);
 		dao.update(repo);
 		notifyRepoList();
 	}
@@ -191,12 +720,16 @@ public class GitService extends IntentService {
 	private void delete(Intent intent) {
 		Repo repo = (Repo) intent.getSerializableExtra(REPO);
 		String path = this.getFilesDir().getPath() + "/" + repo.getFolder();
+		long start = System.currentTimeMillis();
+		JournalEntry.Result result = JournalEntry.Result.Done;
 		try {
 			GitHelper.deleteRepo(path);
 		} catch (IOException e) {
 			// no need to handle
 			Log.e(TAG, "Delete error", e);
+			result = JournalEntry.Result.Failed;
 		}
+		journal(Command.Delete, repo, start, null, result, null);
 	}
 
 	/**
@@ -209,52 +742,295 @@ public class GitService extends IntentService {
 		Repo repo = (Repo) intent.getSerializableExtra(REPO);
 		String path = this.getFilesDir().getPath() + "/" + repo.getFolder();
 		String branchOrTag = intent.getStringExtra(SWITCH_TO);
+		long start = System.currentTimeMillis();
 		try {
-			GitHelper.checkout(path, branchOrTag);
-			long size = GitHelper.getRepoSize(path);
-			repo.setSize(size);
+			ObjectId before = GitHelper.headCommit(path);
+			GitHelper.checkout(path, branchOrTag, sparseOf(repo));
+			journal(Command.Checkout, repo, start, null, JournalEntry.Result.Done, null);
+			updateSize(repo, path, before, false);
+			scheduleIndex(repo);
 			repo.setState(Repo.State.Local);
 			repo.setError("");
 			dao.update(repo);
 			toast(getString(R.string.msg_checking_out_done));
 		} catch (GitError e) {
+			journal(Command.Checkout, repo, start, null, JournalEntry.Result.Failed, e);
 			toast(getString(R.string.msg_checking_out_failes));
 		}
 		notifyRepoList();
 	}
 
+	/**
+	 * Check out folders by new sparse patterns, or remove/restore
+	 * all files; settings are already saved in DB.
+	 * 
+	 * @param intent
+	 */
+	private void sparse(Intent intent) {
+		Repo repo = (Repo) intent.getSerializableExtra(REPO);
+		String path = this.getFilesDir().getPath() + "/" + repo.getFolder();
+		try {
+			GitHelper.applySparse(path, sparseOf(repo));
+			updateSize(repo, path, null, false);
+			toast(getString(R.string.msg_sparse_done));
+		} catch (GitError e) {
+			toast(getString(R.string.msg_sparse_failed));
+		}
+		repo.setState(Repo.State.Local);
+		dao.update(repo);
+		notifyRepoList();
+	}
+
+	/**
+	 * Sparse patterns as stored now: copy in intent may be old.
+	 * 
+	 * @param repo
+	 * @return null for full working tree
+	 */
+	private List<String> sparseOf(Repo repo) {
+		Repo stored = dao.getRepo(repo.getFolder());
+		return (stored == null) ? repo.getSparseList() : stored.getSparseList();
+	}
+
 	/**
 	 * Pull from origin.
 	 * In case of an error, just notify the user.
+	 * Pulls of a sync are silent, result is reported instead.
 	 * 
 	 * @param intent
+	 * @return
 	 */
-	private void pull(Intent intent) {
+	private SyncReport.Result pull(Intent intent) {
 		Repo repo = (Repo) intent.getSerializableExtra(REPO);
 		String path = this.getFilesDir().getPath() + "/" + repo.getFolder();
-		ProgressMonitor pm = new Progress(repo.getFolder());
+		Progress pm = new Progress(repo.getFolder(),
+				intent.getIntExtra(START_ID, 0));
 		String passwd = intent.getStringExtra(AUTH_PASSWD);
+		long start = System.currentTimeMillis();
+		long bytes = 0;
+		GitError error = null;
 
+		SyncReport.Outcome outcome = SyncReport.Outcome.Failed;
+		String message;
 		try {
-			GitHelper.pull(path, repo.getUserName(), passwd, pm);
-			toast(getString(R.string.msg_pull_done));
+			// probe ref advertisement first: most pulls have nothing to fetch
+			String state = GitHelper.readRemoteState(path, repo.getUserName(), passwd);
+			Repo stored = dao.getRepo(repo.getFolder());
+			if ((stored != null) && state.equals(stored.getRemoteState())
+					&& GitHelper.isMergedWithUpstream(path)) {
+				Log.d(TAG, "Remote not changed: " + repo.getFolder());
+				outcome = SyncReport.Outcome.UpToDate;
+				message = getString(R.string.msg_pull_up_to_date);
+			} else {
+				ObjectId before = GitHelper.headCommit(path);
+				List<String> sparse = (stored == null) ? null : stored.getSparseList();
+				GitHelper.pull(path, repo.getUserName(), passwd, sparse, pm);
+				saveTransfer(repo.getFolder(), pm);
+				dao.updateRemoteState(repo.getFolder(), state);
+				long objects = -1;
+				if ((stored != null) && stored.isSizeKnown()) {
+					objects = stored.getPackSize() + stored.getLooseSize();
+				}
+				StorageSize size = updateSize(repo, path, before, true);
+				checkMaintenance(repo, size);
+				scheduleIndex(repo);
+				if ((objects >= 0) && repo.isSizeKnown()) {
+					bytes = Math.max(0, repo.getPackSize() + repo.getLooseSize() - objects);
+				}
+				outcome = SyncReport.Outcome.Updated;
+				message = getString(R.string.msg_pull_done);
+			}
+		} catch (CancelledError e) {
+			outcome = SyncReport.Outcome.Cancelled;
+			message = getString(R.string.msg_cancelled);
 		} catch (NoHeadError e) {
-			toast(getString(R.string.msg_pull_failed) + "\n"
-					+ getString(R.string.git_error_head));
+			error = e;
+			message = getString(R.string.git_error_head);
 		} catch (AuthFailError e) {
-			toast(getString(R.string.msg_pull_failed) + "\n"
-					+ getString(R.string.git_error_auth));
+			error = e;
+			message = getString(R.string.git_error_auth);
 		} catch (ConnectionError e) {
-			toast(getString(R.string.msg_pull_failed) + "\n"
-					+ getString(R.string.git_error_connect));
+			error = e;
+			message = getString(R.string.git_error_connect);
 		} catch (GitError e) {
-			toast(getString(R.string.msg_pull_failed) + "\n"
-					+ getString(R.string.git_error_generic));
+			error = e;
+			message = getString(R.string.git_error_generic);
+		}
+		JournalEntry.Result logged = JournalEntry.Result.Failed;
+		if (outcome == SyncReport.Outcome.Updated) {
+			logged = JournalEntry.Result.Done;
+		} else if (outcome == SyncReport.Outcome.UpToDate) {
+			logged = JournalEntry.Result.UpToDate;
+		} else if (outcome == SyncReport.Outcome.Cancelled) {
+			logged = JournalEntry.Result.Cancelled;
+		}
+		journal(Command.Pull, repo, start, pm.finish(), logged, error);
+		if (!intent.getBooleanExtra(SYNC, false)) {
+			if (outcome == SyncReport.Outcome.Failed) {
+				toast(getString(R.string.msg_pull_failed) + "\n" + message);
+			} else {
+				toast(message);
+			}
 		}
 		Log.d(TAG, "Pull done");
 		repo.setState(Repo.State.Local);
 		dao.update(repo);
 		notifyRepoList();
+
+		SyncReport.Result result = new SyncReport.Result(repo.getName(), outcome, message);
+		result.bytes = bytes;
+		result.time = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	/**
+	 * Keep repo size current without walking the working tree.
+	 * Full measure is done only when split is not known (after clone
+	 * or db upgrade); otherwise working tree size is updated from
+	 * paths changed between commits, and objects are re-measured
+	 * only if something was fetched. Sparse working tree is measured
+	 * from index, which lists checked out files only; repo without
+	 * working tree has empty index, so its size is objects only.
+	 * 
+	 * @param repo
+	 * @param path
+	 * @param before HEAD before the operation, null after clone
+	 * @param fetched
+	 * @return objects size if measured, or null
+	 */
+	private StorageSize updateSize(Repo repo, String path, ObjectId before, boolean fetched) {
+		StorageSize size = null;
+		Repo stored = dao.getRepo(repo.getFolder());
+		if (stored != null) {
+			repo.setPackSize(stored.getPackSize());
+			repo.setLooseSize(stored.getLooseSize());
+			repo.setWorktreeSize(stored.getWorktreeSize());
+		}
+		try {
+			if ((before == null) || !repo.isSizeKnown()
+					|| ((stored != null) && stored.isSparse())) {
+				size = GitHelper.getStorageSize(path);
+				repo.setPackSize(size.packs);
+				repo.setLooseSize(size.loose);
+				repo.setWorktreeSize(size.worktree);
+			} else {
+				if (fetched) {
+					size = new StorageSize();
+					GitHelper.updateObjectsSize(path, size);
+					repo.setPackSize(size.packs);
+					repo.setLooseSize(size.loose);
+				}
+				ObjectId after = GitHelper.headCommit(path);
+				repo.setWorktreeSize(repo.getWorktreeSize()
+						+ GitHelper.worktreeSizeDelta(path, before, after));
+			}
+			repo.setSize(repo.getPackSize() + repo.getLooseSize() + repo.getWorktreeSize());
+		} catch (GitError e) {
+			Log.e(TAG, "Can't update size", e);
+		}
+		return size;
+	}
+
+	/**
+	 * Schedule gc if there are too many loose objects or packs.
+	 * 
+	 * @param repo
+	 * @param size objects stats, null if not known
+	 */
+	private void checkMaintenance(Repo repo, StorageSize size) {
+		if (size == null) return;
+		Settings settings = new Settings(this);
+		if ((size.looseObjects > settings.getGcLooseLimit())
+				|| (size.packFiles > settings.getGcPackLimit())) {
+			Log.d(TAG, "Gc needed: " + repo.getFolder() + ", loose: "
+					+ size.looseObjects + ", packs: " + size.packFiles);
+			Intent gc = new Intent(this, GitService.class);
+			gc.putExtra(COMMAND, Command.Gc);
+			gc.putExtra(REPO, repo);
+			gc.putExtra(BACKGROUND, true);
+			startService(gc);
+		}
+	}
+
+	/**
+	 * Update commit index for new HEAD, in background.
+	 * 
+	 * @param repo
+	 */
+	private void scheduleIndex(Repo repo) {
+		Intent index = new Intent(this, GitService.class);
+		index.putExtra(COMMAND, Command.Index);
+		index.putExtra(REPO, repo);
+		index.putExtra(BACKGROUND, true);
+		startService(index);
+	}
+
+	/**
+	 * Repack and prune objects. Repo stays usable meanwhile.
+	 * Objects size before and after, and time taken are saved.
+	 * 
+	 * @param intent
+	 */
+	private void gc(Intent intent) {
+		String folder = ((Repo) intent.getSerializableExtra(REPO)).getFolder();
+		Repo repo = dao.getRepo(folder);
+		if (repo == null) return; // deleted
+		String path = this.getFilesDir().getPath() + "/" + folder;
+		ProgressMonitor pm = new Progress(folder, intent.getIntExtra(START_ID, 0));
+		long start = System.currentTimeMillis();
+		try {
+			StorageSize size = new StorageSize();
+			GitHelper.updateObjectsSize(path, size);
+			long before = size.packs + size.loose;
+			GitHelper.gc(path, pm);
+			GitHelper.updateObjectsSize(path, size);
+			long after = size.packs + size.loose;
+			repo.setPackSize(size.packs);
+			repo.setLooseSize(size.loose);
+			if (repo.isSizeKnown()) {
+				repo.setSize(after + repo.getWorktreeSize());
+			}
+			repo.setGcDate(System.currentTimeMillis());
+			repo.setGcBefore(before);
+			repo.setGcAfter(after);
+			repo.setGcTime(repo.getGcDate() - start);
+			dao.updateGc(repo);
+			Log.d(TAG, "Gc done: " + folder + ", " + before + " -> " + after
+					+ " in " + repo.getGcTime() + "ms");
+			journal(Command.Gc, repo, start, null, JournalEntry.Result.Done, null);
+			notifyRepoList();
+		} catch (CancelledError e) {
+			Log.d(TAG, "Gc cancelled: " + folder);
+			journal(Command.Gc, repo, start, null, JournalEntry.Result.Cancelled, null);
+		} catch (GitError e) {
+			Log.e(TAG, "Gc failed: " + folder);
+			journal(Command.Gc, repo, start, null, JournalEntry.Result.Failed, e);
+		}
+	}
+
+	/**
+	 * Add new commits of HEAD to commit index, or build it.
+	 * Log is read by walk until index is done.
+	 * 
+	 * @param intent
+	 */
+	private void index(Intent intent) {
+		String folder = ((Repo) intent.getSerializableExtra(REPO)).getFolder();
+		Repo repo = dao.getRepo(folder);
+		if (repo == null) return; // deleted
+		String path = this.getFilesDir().getPath() + "/" + folder;
+		ProgressMonitor pm = new Progress(folder, intent.getIntExtra(START_ID, 0));
+		long start = System.currentTimeMillis();
+		try {
+			CommitIndex.update(path, pm);
+			journal(Command.Index, repo, start, null, JournalEntry.Result.Done, null);
+		} catch (CancelledError e) {
+			Log.d(TAG, "Index cancelled: " + folder);
+			journal(Command.Index, repo, start, null, JournalEntry.Result.Cancelled, null);
+		} catch (GitError e) {
+			Log.e(TAG, "Index failed: " + folder);
+			journal(Command.Index, repo, start, null, JournalEntry.Result.Failed, e);
+		}
 	}
 
 	private void toast(final String message) {
@@ -278,35 +1054,142 @@ public class GitService extends IntentService {
 	}
 
 	/**
-	 * Progress event has operation name and current percentage.
-	 * 
-	 * @param progress
+	 * Sync progress or results changed.
 	 */
-	private void notifyProgress(ProgressBean progress) {
+	private void notifySync() {
 		Intent notify = new Intent();
-		notify.setAction(BROADCAST_PROGRESS);
-		notify.putExtra(BROADCAST_PROGRESS_DATA, progress);
+		notify.setAction(BROADCAST_SYNC);
+		notify.putExtra(BROADCAST_SYNC_DATA, syncReport);
 		sendBroadcast(notify);
 	}
 
+	/**
+	 * One command in the pool.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class Task implements Runnable, Comparable<Task> {
+		
+		final Intent intent;
+		final Command command;
+		final String folder;
+		final int startId;
+		final String name;
+		final long received;
+		boolean background;
+		boolean sync; // result goes to sync report
+		SyncReport.Result result; // pull only
+		
+		Task(Intent intent) {
+			this.intent = intent;
+			this.command = (Command) intent.getSerializableExtra(COMMAND);
+			Repo repo = (Repo) intent.getSerializableExtra(REPO);
+			this.folder = repo.getFolder();
+			this.name = repo.getName();
+			this.sync = intent.getBooleanExtra(SYNC, false);
+			this.startId = intent.getIntExtra(START_ID, 0);
+			this.background = intent.getBooleanExtra(BACKGROUND, false);
+			this.received = System.currentTimeMillis();
+		}
+		
+		/**
+		 * Take over priority, password and sync of a merged command.
+		 * Must be called before task starts.
+		 * 
+		 * @param other
+		 */
+		void merge(Task other) {
+			if (!other.background) {
+				background = false;
+			}
+			if (other.sync) {
+				sync = true;
+			}
+			String passwd = other.intent.getStringExtra(AUTH_PASSWD);
+			if ((passwd != null) && (intent.getStringExtra(AUTH_PASSWD) == null)) {
+				intent.putExtra(AUTH_PASSWD, passwd);
+			}
+		}
+
+		/**
+		 * User commands first, then in order received.
+		 */
+		@Override
+		public int compareTo(Task another) {
+			if (background != another.background) {
+				return background ? 1 : -1;
+			}
+			return startId - another.startId;
+		}
+
+		@Override
+		public void run() {
+			if (!starting(this)) {
+				return; // superseded or merged before start
+			}
+			long wait = System.currentTimeMillis() - received;
+			int depth = queueDepth.decrementAndGet();
+			started.incrementAndGet();
+			totalWait.addAndGet(wait);
+			if (wait > maxWait.get()) {
+				maxWait.set(wait);
+			}
+			Log.d(TAG, "Starting after " + wait + "ms, still waiting: " + depth);
+			ErrorLog.setContext(folder, command.name());
+			try {
+				handleCommand(this);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Command failed", e);
+				GittApp.saveErrorTrace(e);
+			} finally {
+				ErrorLog.clearContext();
+				handler.post(new Runnable() {
+					
+					@Override
+					public void run() {
+						finished(Task.this);
+					}
+				});
+			}
+		}
+		
+	}
+
 	/**
 	 * Progress monitor.
-	 * Sends broadcasts for every 5%.
+	 * Publishes every percent to ProgressChannel, which limits UI updates.
+	 * Rates are refreshed at least every SAMPLE_MS, even if percent
+	 * is the same. Bytes received are measured as growth of packs,
+	 * including the one being received.
 	 * 
 	 * @author Andrew Romanenco
 	 * 
 	 */
 	class Progress implements ProgressMonitor {
 
+		private static final long SAMPLE_MS = 250;
+
 		private int lastProgress = 0;
+		private long lastSample;
 
 		private String receiverId;
+		private int startId;
 		private String currentTask;
 		private int totalUnits;
 		private int currentUnits;
 
-		Progress(String receiverId) {
+		private final TransferStats stats = new TransferStats();
+		private final File objectsDir;
+		private final File packDir;
+		private long packBase;
+
+		Progress(String receiverId, int startId) {
 			this.receiverId = receiverId;
+			this.startId = startId;
+			objectsDir = new File(getFilesDir(), receiverId + "/.git/objects");
+			packDir = new File(objectsDir, "pack");
+			packBase = packBytes();
 		}
 
 		@Override
@@ -315,9 +1198,8 @@ public class GitService extends IntentService {
 			totalUnits = units;
 			currentUnits = 0;
 			lastProgress = 0;
-			ProgressBean progress = new ProgressBean(receiverId, task, 0,
-					sequenceNumber++);
-			notifyProgress(progress);
+			stats.beginPhase(task, units);
+			sample();
 		}
 
 		@Override
@@ -327,7 +1209,7 @@ public class GitService extends IntentService {
 
 		@Override
 		public boolean isCancelled() {
-			return false;
+			return GitService.this.isCancelled(receiverId, startId);
 		}
 
 		@Override
@@ -336,45 +1218,98 @@ public class GitService extends IntentService {
 
 		@Override
 		public void update(int units) {
-			if (totalUnits == 0)
-				return;// we don't always have this info
 			currentUnits += units;
-			int p = (int) ((float) currentUnits / totalUnits * 100.0);
-			if ((p >= (lastProgress + 5)) || (p == 100)) {
-				ProgressBean progress = new ProgressBean(receiverId,
-						currentTask, p, sequenceNumber++);
+			int p = lastProgress;
+			if (totalUnits != 0) { // we don't always have this info
+				p = (int) ((float) currentUnits / totalUnits * 100.0);
+			}
+			if ((p != lastProgress)
+					|| (SystemClock.uptimeMillis() - lastSample >= SAMPLE_MS)) {
 				lastProgress = p;
-				notifyProgress(progress);
+				stats.update(currentUnits);
+				sample();
 			}
 		}
 
+		/**
+		 * Final figures, after operation is done. Safe to call again.
+		 * 
+		 * @return
+		 */
+		TransferStats finish() {
+			if (!stats.isFinished()) {
+				stats.setBytes(Math.max(0, packBytes() - packBase));
+				stats.finish();
+			}
+			return stats;
+		}
+
+		private void sample() {
+			lastSample = SystemClock.uptimeMillis();
+			long size = packBytes();
+			if (size < packBase) {
+				packBase = 0; // old partial clone was deleted
+			}
+			stats.setBytes(size - packBase);
+			ProgressBean progress = new ProgressBean(receiverId, currentTask, lastProgress);
+			progress.bytes = stats.getBytes();
+			progress.bytesPerSecond = stats.getBytesPerSecond();
+			progress.unitsPerSecond = stats.getUnitsPerSecond();
+			progress.eta = stats.getEta();
+			ProgressChannel.getInstance().publish(progress);
+		}
+
+		/**
+		 * Size of finished packs and of pack being received: jgit writes
+		 * it as objects/incoming_*.pack and moves to pack/ when complete.
+		 * 
+		 * @return
+		 */
+		private long packBytes() {
+			return filesSize(packDir, "") + filesSize(objectsDir, "incoming_");
+		}
+
+		private long filesSize(File dir, String prefix) {
+			long size = 0;
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file: files) {
+					String name = file.getName();
+					if (name.startsWith(prefix) && name.endsWith(".pack")) {
+						size += file.length();
+					}
+				}
+			}
+			return size;
+		}
+
 	}
 
 	/**
-	 * Progress bean sent with broadcast
+	 * Progress of a repo operation, delivered by ProgressChannel.
 	 * 
 	 * @author Andrew Romanenco
 	 * 
 	 */
-	public static class ProgressBean implements Serializable {
-
-		private static final long serialVersionUID = -4280431521919842892L;
+	public static class ProgressBean {
 
 		public String receiverId;
 		public String task;
 		public int progress;
-		public int sequence;
+		public int sequence; // set by ProgressChannel
+		public long bytes; // received so far
+		public long bytesPerSecond; // 0 if not known
+		public long unitsPerSecond; // of current task
+		public long eta = -1; // ms left for current task, -1 if not known
 
 		public ProgressBean() {
 
 		}
 
-		public ProgressBean(String receiverId, String task, int progress,
-				int sequence) {
+		public ProgressBean(String receiverId, String task, int progress) {
 			this.receiverId = receiverId;
 			this.task = task;
 			this.progress = progress;
-			this.sequence = sequence;
 		}
 	}
 
@@ -19,34 +19,44 @@
 
 package com.romanenco.gitt;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.List;
 
 import com.romanenco.gitt.dao.DAO;
 import com.romanenco.gitt.dao.Repo;
+import com.romanenco.gitt.git.GitHelper;
+import com.romanenco.gitt.git.MemoryBudget;
+import com.romanenco.gitt.git.RepoPool;
 
+import android.app.ActivityManager;
 import android.app.Application;
 import android.content.Intent;
+import android.util.Log;
 
 /**
  * Clean up application on restart.
  * 
- * All NEW repos are resubmitted for checkout.
+ * jgit caches are sized for the device heap.
+ * 
+ * All NEW repos are resubmitted for checkout (clone resumes
+ * from what was fetched before restart).
  * All BUSY repos are released.
  * 
- * Handle last error stack trace for entire app.
+ * Errors of entire app are recorded to ErrorLog.
  * 
  * @author Andrew Romanenco
  *
  */
 public class GittApp extends Application {
 	
-	private static String lastErrorTrace;
+	private static final String TAG = "GittApp";
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		Settings settings = new Settings(this);
+		GitHelper.setTimeout(settings.getNetworkTimeout());
+		ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+		MemoryBudget.apply(am.getMemoryClass(), settings.isPackedGitMmap());
 		DAO dao = new DAO(this);
 		dao.open(true);
 		List<Repo> repos = dao.listAll();
@@ -55,6 +65,7 @@ public class GittApp extends Application {
 				Intent git = new Intent(this, GitService.class);
 				git.putExtra(GitService.COMMAND, GitService.Command.Clone);
 				git.putExtra(GitService.REPO, repo);
+				git.putExtra(GitService.BACKGROUND, true);
 				startService(git);
 			} else if (repo.getState() == Repo.State.Busy) {
 				repo.setState(Repo.State.Local);
@@ -64,15 +75,22 @@ public class GittApp extends Application {
 		dao.close();
 	}
 	
-	public static synchronized String saveErrorTrace(Exception ex) {
-		StringWriter trace = new StringWriter();
-		ex.printStackTrace(new PrintWriter(trace));
-		lastErrorTrace = trace.toString();
-		return lastErrorTrace;
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		RepoPool.getInstance().clearIdle();
+		MemoryBudget.flush();
+		Log.d(TAG, "Low memory: " + MemoryBudget.asString());
 	}
 	
-	public static synchronized String getLastErrorTrace() {
-		return lastErrorTrace;
+	/**
+	 * Record an error with repo and command of current thread.
+	 * Trace is not rendered here, so it's cheap.
+	 * 
+	 * @param ex
+	 */
+	public static void saveErrorTrace(Throwable ex) {
+		ErrorLog.getInstance().add(ex);
 	}
 	
 }
@@ -20,35 +20,91 @@
 package com.romanenco.gitt;
 
 import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import com.romanenco.gitt.dao.Repo;
-import com.romanenco.gitt.git.GitHelper;
+import com.romanenco.gitt.git.CommitIndex;
+import com.romanenco.gitt.git.GitError;
 import com.romanenco.gitt.git.GitHelper.LogEntry;
+import com.romanenco.gitt.git.LogPager;
 
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.text.method.ScrollingMovementMethod;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.app.Activity;
 
 /**
- * Show up to 50 log messages from current active branch.
+ * Log of current active branch.
  * 
- * This is VERY basic implementation.
- * To be replaced with table layout and additional features.
+ * History is read by pages while user scrolls: next page continues
+ * the walk, or is read from commit index. Rows are recycled by list
+ * view. Only a few pages around what was shown last are kept; page
+ * scrolled back to is read again. Whole history or first parents only.
+ * 
+ * Rows hold header fields only; full message is read when a row
+ * is expanded by tap. Long tap shows changed files of a commit.
+ * 
+ * If PATH is given, only commits which changed it are shown.
+ * Otherwise history can be searched, back returns to whole log.
  * 
  * @author Andrew Romanenco
  *
  */
 public class LogViewActivity extends Activity {
 	
-	private static final int LOG_LIMIT = 50; // max log messages to show
+	private static final String TAG = "LogView";
+	
+	private static final int PAGE_SIZE = 50;
+	
+	/**
+	 * Next page is read when this number of rows is left below.
+	 */
+	private static final int PREFETCH = 15;
 	
 	public static final String REPO = "REPO";
 	
+	/**
+	 * Optional: file or folder relative to repo root, and branch/tag
+	 * to start from instead of HEAD.
+	 */
+	public static final String PATH = "PATH";
+	public static final String REVISION = "REVISION";
+	
 	private Repo current;
-	private TextView textView;
+	private String path;
+	private String revision;
+	private CommitIndex.Query query; // null if not searching
+	private boolean firstParent;
+	private LogPager pager;
+	private LogAdapter adapter;
+	private ListView list;
+	private View footer;
+	private boolean loading;
+	private boolean failed; // stop paging after read error
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -56,37 +112,575 @@ public class LogViewActivity extends Activity {
 		setContentView(R.layout.activity_log_view);
 		
 		current = (Repo)getIntent().getSerializableExtra(REPO);
+		path = getIntent().getStringExtra(PATH);
+		revision = getIntent().getStringExtra(REVISION);
+		if (path != null) {
+			setTitle(baseTitle());
+		}
+		
+		list = (ListView)findViewById(R.id.log_list);
+		footer = LayoutInflater.from(this).inflate(R.layout.log_footer, list, false);
+		list.addFooterView(footer);
+		adapter = new LogAdapter(this, new LogAdapter.PageSource() {
+			
+			@Override
+			public void requestPage(int number) {
+				if (pager != null) {
+					new PageReaderTask(number).execute();
+				}
+			}
+		});
+		list.setAdapter(adapter);
+		list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+			
+			@Override
+			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+				if ((position >= adapter.getCount()) || (adapter.getItem(position) == null)) {
+					return; // footer, or page being read
+				}
+				String commit = adapter.getItem(position).getId();
+				if (adapter.toggle(commit) && (adapter.getMessage(commit) == null)) {
+					new MessageReaderTask(commit).execute();
+				}
+			}
+		});
+		list.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+			
+			@Override
+			public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+				if ((position >= adapter.getCount()) || (adapter.getItem(position) == null)) {
+					return false; // footer, or page being read
+				}
+				Intent details = new Intent(LogViewActivity.this, CommitActivity.class);
+				details.putExtra(CommitActivity.REPO_PATH,
+						new File(getFilesDir(), current.getFolder()).getAbsolutePath());
+				details.putExtra(CommitActivity.COMMIT, adapter.getItem(position).getId());
+				startActivity(details);
+				return true;
+			}
+		});
+		list.setOnScrollListener(new AbsListView.OnScrollListener() {
+			
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+			
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) {
+				if (firstVisibleItem + visibleItemCount + PREFETCH >= totalItemCount) {
+					loadNextPage();
+				}
+			}
+		});
 		
-		textView = (TextView)findViewById(R.id.text_log);
-		textView.setMovementMethod(new ScrollingMovementMethod());
+		if (!openLog()) {
+			finish();
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		closeLog();
+	}
+	
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		getMenuInflater().inflate(R.menu.log_view, menu);
+		menu.findItem(R.id.log_first_parent).setChecked(firstParent);
+		menu.findItem(R.id.log_first_parent).setVisible(path == null);
+		menu.findItem(R.id.log_search).setVisible(path == null);
+		return true;
+	}
+	
+	@Override
+	public void onBackPressed() {
+		if (query != null) {
+			query = null;
+			reopenLog();
+		} else {
+			super.onBackPressed();
+		}
+	}
+	
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.log_first_parent:
+			firstParent = !item.isChecked();
+			item.setChecked(firstParent);
+			if (query != null) {
+				query.firstParent = firstParent;
+			}
+			reopenLog();
+			break;
+		case R.id.log_search:
+			askQuery();
+			break;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+	
+	/**
+	 * Ask for words, author and dates, then show hits.
+	 */
+	private void askQuery() {
+		final View form = LayoutInflater.from(this).inflate(R.layout.dialog_search, null);
+		if (query != null) {
+			((EditText)form.findViewById(R.id.search_terms)).setText(query.terms);
+			((EditText)form.findViewById(R.id.search_author)).setText(query.author);
+		}
+		AlertDialog dlg = new AlertDialog.Builder(this)
+			.setTitle(R.string.action_search)
+			.setPositiveButton(getString(android.R.string.ok),
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						CommitIndex.Query next = new CommitIndex.Query();
+						next.terms = textOf(form, R.id.search_terms);
+						next.author = textOf(form, R.id.search_author);
+						next.firstParent = firstParent;
+						try {
+							next.since = parseDay(textOf(form, R.id.search_since), 0);
+							next.until = parseDay(textOf(form, R.id.search_until), 1);
+						} catch (ParseException e) {
+							Toast.makeText(LogViewActivity.this, R.string.msg_bad_date,
+									Toast.LENGTH_SHORT).show();
+							return;
+						}
+						query = next;
+						reopenLog();
+					}
+				}
+				)
+			.setNegativeButton(getString(android.R.string.cancel),
+				null
+				)
+			.create();
+		dlg.setView(form);
+		dlg.show();
+	}
+	
+	private static String textOf(View form, int id) {
+		return ((EditText)form.findViewById(id)).getText().toString().trim();
+	}
+	
+	/**
+	 * Start of a day, in seconds.
+	 * 
+	 * @param day yyyy-mm-dd, or empty
+	 * @param shift days to add
+	 * @return 0 for empty day
+	 * @throws ParseException
+	 */
+	private static long parseDay(String day, int shift) throws ParseException {
+		if (day.length() == 0) {
+			return 0;
+		}
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+		format.setLenient(false);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(format.parse(day));
+		calendar.add(Calendar.DAY_OF_MONTH, shift);
+		return calendar.getTimeInMillis() / 1000;
+	}
+	
+	/**
+	 * Read log again, after mode change.
+	 */
+	private void reopenLog() {
+		closeLog();
+		adapter.clear();
+		if (list.getFooterViewsCount() == 0) {
+			list.addFooterView(footer);
+		}
+		loading = false;
+		failed = false;
+		setTitle(baseTitle());
+		if (!openLog()) {
+			list.removeFooterView(footer);
+		}
+	}
+	
+	/**
+	 * Start reading history from HEAD.
+	 * 
+	 * @return false if repo can't be read
+	 */
+	private boolean openLog() {
 		File repoDir = new File(this.getFilesDir(), current.getFolder());
+		try {
+			if (path != null) {
+				pager = new LogPager(repoDir.getAbsolutePath(), path, revision);
+			} else if (query != null) {
+				pager = new LogPager(repoDir.getAbsolutePath(), query);
+			} else {
+				pager = new LogPager(repoDir.getAbsolutePath(), firstParent);
+			}
+		} catch (GitError e) {
+			Toast.makeText(this, R.string.git_error_generic, Toast.LENGTH_SHORT).show();
+			return false;
+		}
+		if ((path == null) && !pager.isIndexed()) {
+			if (query != null) {
+				Toast.makeText(this, R.string.msg_no_search_index, Toast.LENGTH_LONG).show();
+			}
+			// e.g. index of older version: build it for next time
+			Intent index = new Intent(this, GitService.class);
+			index.putExtra(GitService.COMMAND, GitService.Command.Index);
+			index.putExtra(GitService.REPO, current);
+			index.putExtra(GitService.BACKGROUND, true);
+			startService(index);
+		}
+		loadNextPage();
+		return true;
+	}
+	
+	/**
+	 * Name of path, search, or log for whole history.
+	 * 
+	 * @return
+	 */
+	private String baseTitle() {
+		if (query != null) {
+			return getString(R.string.title_search);
+		}
+		if (path == null) {
+			return getString(R.string.title_activity_log_view);
+		}
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+	
+	private void closeLog() {
+		final LogPager old = pager;
+		pager = null;
+		if (old != null) {
+			new Thread(new Runnable() {
+				
+				@Override
+				public void run() {
+					old.close(); // may wait for page being read
+				}
+			}).start();
+		}
+	}
+	
+	private void loadNextPage() {
+		if (loading || failed || (pager == null) || pager.isFinished()) {
+			return;
+		}
+		loading = true;
+		new LogReaderTask().execute();
+	}
+	
+	/**
+	 * Read next page of log in background.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class LogReaderTask extends AsyncTask<Void, Void, List<LogEntry>> {
+		
+		private final LogPager source = pager;
+		private final boolean first = (adapter.getCount() == 0);
+		private long total = -1; // commits, if known
+
+		@Override
+		protected List<LogEntry> doInBackground(Void... params) {
+			try {
+				if (first) {
+					total = source.count();
+				}
+				return source.next(PAGE_SIZE);
+			} catch (GitError e) {
+				Log.e(TAG, "Can't read log");
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(List<LogEntry> result) {
+			if (isFinishing() || (source != pager)) {
+				return; // log was reopened meanwhile
+			}
+			loading = false;
+			if (total >= 0) {
+				setTitle(getString(R.string.log_title_count, baseTitle(), total));
+			}
+			if (result == null) {
+				failed = true;
+				Toast.makeText(LogViewActivity.this, R.string.git_error_generic,
+						Toast.LENGTH_SHORT).show();
+				list.removeFooterView(footer);
+				return;
+			}
+			adapter.add(result);
+			if (source.isFinished()) {
+				list.removeFooterView(footer);
+				setTitle(getString(R.string.log_title_count, baseTitle(), adapter.getCount()));
+			}
+		}
 		
-		new LogReaderTask().execute(repoDir);
 	}
 	
 	/**
-	 * Walk through commit tree in background.
+	 * Read again a page dropped by adapter.
 	 * 
 	 * @author Andrew Romanenco
 	 *
 	 */
-	class LogReaderTask extends AsyncTask<File, Void, List<LogEntry>> {
+	class PageReaderTask extends AsyncTask<Void, Void, List<LogEntry>> {
+		
+		private final LogPager source = pager;
+		private final int number;
+		
+		PageReaderTask(int number) {
+			this.number = number;
+		}
 
 		@Override
-		protected List<LogEntry> doInBackground(File... params) {
-			File repoDir = params[0];
-			List<LogEntry> log = GitHelper.readRepoHistory(repoDir.getAbsolutePath(), LOG_LIMIT);
-			return log;
+		protected List<LogEntry> doInBackground(Void... params) {
+			try {
+				return source.page(number, PAGE_SIZE);
+			} catch (GitError e) {
+				Log.e(TAG, "Can't read page " + number);
+				return null;
+			}
 		}
 
 		@Override
 		protected void onPostExecute(List<LogEntry> result) {
-			StringBuilder sb = new StringBuilder();
-			for (LogEntry entry: result) {
-				sb.append(entry.getText());
-				sb.append("\n-----------------\n\n"); // hardcode for now, make nice view later
+			if (isFinishing() || (source != pager)) {
+				return;
+			}
+			adapter.setPage(number, result);
+		}
+		
+	}
+	
+	/**
+	 * Read full message of expanded commit in background.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	class MessageReaderTask extends AsyncTask<Void, Void, String> {
+		
+		private final LogPager source = pager;
+		private final String commit;
+		
+		MessageReaderTask(String commit) {
+			this.commit = commit;
+		}
+
+		@Override
+		protected String doInBackground(Void... params) {
+			try {
+				return source.readMessage(commit);
+			} catch (GitError e) {
+				Log.e(TAG, "Can't read message");
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(String result) {
+			if (isFinishing() || (source != pager)) {
+				return;
+			}
+			if (result == null) {
+				adapter.toggle(commit);
+				Toast.makeText(LogViewActivity.this, R.string.git_error_generic,
+						Toast.LENGTH_SHORT).show();
+				return;
+			}
+			adapter.setMessage(commit, result.trim());
+		}
+		
+	}
+	
+	/**
+	 * Log rows: summary, author and date, commit id;
+	 * and message for expanded ones.
+	 * 
+	 * Rows are counted for all pages read, but entries are kept only
+	 * for last used pages. Row of a dropped page asks for it again.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	static class LogAdapter extends BaseAdapter {
+		
+		/**
+		 * Max full messages to keep.
+		 */
+		private static final int MESSAGES = 32;
+		
+		/**
+		 * Max pages of entries to keep.
+		 */
+		private static final int PAGES = 6;
+		
+		/**
+		 * Reads page dropped earlier, then calls setPage().
+		 */
+		interface PageSource {
+			void requestPage(int number);
+		}
+		
+		private final LayoutInflater inflater;
+		private final Context context;
+		private final PageSource source;
+		private int count; // rows of all pages read
+		private final Set<Integer> requested = new HashSet<Integer>();
+		private final Set<String> expanded = new HashSet<String>();
+		
+		/**
+		 * Entries by page number, access ordered.
+		 */
+		private final Map<Integer, List<LogEntry>> pages =
+				new LinkedHashMap<Integer, List<LogEntry>>(PAGES, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<LogEntry>> eldest) {
+				return size() > PAGES;
+			}
+		};
+		
+		/**
+		 * Full messages by commit id, access ordered.
+		 * Messages of expanded rows are kept.
+		 */
+		private final Map<String, String> messages =
+				new LinkedHashMap<String, String>(MESSAGES, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return (size() > MESSAGES) && !expanded.contains(eldest.getKey());
+			}
+		};
+		
+		LogAdapter(Context context, PageSource source) {
+			inflater = LayoutInflater.from(context);
+			this.context = context;
+			this.source = source;
+		}
+		
+		/**
+		 * Next page; every page but last has PAGE_SIZE entries.
+		 * 
+		 * @param page
+		 */
+		void add(List<LogEntry> page) {
+			if (page.isEmpty()) {
+				return;
+			}
+			pages.put(count / PAGE_SIZE, page);
+			count += page.size();
+			notifyDataSetChanged();
+		}
+		
+		/**
+		 * Page read again.
+		 * 
+		 * @param number
+		 * @param page null if it can't be read
+		 */
+		void setPage(int number, List<LogEntry> page) {
+			requested.remove(number);
+			if (page != null) {
+				pages.put(number, page);
+				notifyDataSetChanged();
+			}
+		}
+		
+		void clear() {
+			pages.clear();
+			requested.clear();
+			count = 0;
+			expanded.clear();
+			notifyDataSetChanged();
+		}
+		
+		/**
+		 * Expand or collapse row of a commit.
+		 * 
+		 * @param commit
+		 * @return true if expanded
+		 */
+		boolean toggle(String commit) {
+			boolean expand = expanded.add(commit);
+			if (!expand) {
+				expanded.remove(commit);
+			}
+			notifyDataSetChanged();
+			return expand;
+		}
+		
+		String getMessage(String commit) {
+			return messages.get(commit);
+		}
+		
+		void setMessage(String commit, String message) {
+			messages.put(commit, message);
+			notifyDataSetChanged();
+		}
+
+		@Override
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return null if page of the row is not kept
+		 */
+		@Override
+		public LogEntry getItem(int position) {
+			List<LogEntry> page = pages.get(position / PAGE_SIZE);
+			int row = position % PAGE_SIZE;
+			return ((page != null) && (row < page.size())) ? page.get(row) : null;
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return position;
+		}
+
+		@Override
+		public View getView(int position, View view, ViewGroup parent) {
+			if (view == null) {
+				view = inflater.inflate(R.layout.log_row, parent, false);
+			}
+			LogEntry entry = getItem(position);
+			TextView message = (TextView)view.findViewById(R.id.log_message);
+			if (entry == null) {
+				int number = position / PAGE_SIZE;
+				if (requested.add(number)) {
+					source.requestPage(number);
+				}
+				((TextView)view.findViewById(R.id.log_summary)).setText(R.string.log_loading);
+				((TextView)view.findViewById(R.id.log_author)).setText("");
+				((TextView)view.findViewById(R.id.log_id)).setText("");
+				message.setVisibility(View.GONE);
+				return view;
+			}
+			((TextView)view.findViewById(R.id.log_summary)).setText(entry.getSummary());
+			((TextView)view.findViewById(R.id.log_author)).setText(
+					entry.getAuthor() + ", " + entry.getDate());
+			((TextView)view.findViewById(R.id.log_id)).setText(entry.getId());
+			if (expanded.contains(entry.getId())) {
+				String text = messages.get(entry.getId());
+				message.setText((text != null) ? text
+						: context.getString(R.string.log_message_loading));
+				message.setVisibility(View.VISIBLE);
+			} else {
+				message.setVisibility(View.GONE);
 			}
-			textView.setText(sb.toString());
+			return view;
 		}
 		
 	}
@@ -19,35 +19,52 @@
 
 package com.romanenco.gitt;
 
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.transport.URIish;
 
 import com.romanenco.gitt.dao.DAO;
 import com.romanenco.gitt.dao.Repo;
 import com.romanenco.gitt.GitService.ProgressBean;
 import com.romanenco.gitt.R;
 
+import android.app.AlertDialog;
 import android.app.ListActivity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.text.InputType;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * Entry point for GitViewer App.
  * 
- * Display all repos.
+ * Display all repos. Long tap on busy repo cancels its operation.
+ * Sync all pulls every local repo, passwords are asked up front.
  * Listen for broadcast to refresh the list for any changes.
  * (clone/pull) Listen for broadcast to update progress.
  * 
@@ -73,36 +90,92 @@ public class MainActivity extends ListActivity {
 
 	};
 
+	/**
+	 * Listen for sync progress and results
+	 */
+	private BroadcastReceiver syncListener = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			showSyncStatus((SyncReport) intent
+					.getSerializableExtra(GitService.BROADCAST_SYNC_DATA));
+		}
+
+	};
+
 	/**
 	 * Listen GitService progress events Update specific cell elements according
 	 * to repo id.
 	 */
-	private BroadcastReceiver progressListener = new BroadcastReceiver() {
-
-		int modCount = -1;
+	private ProgressChannel.Listener progressListener = new ProgressChannel.Listener() {
 
 		@Override
-		public void onReceive(Context context, Intent intent) {
-			ProgressBean data = (ProgressBean) intent
-					.getSerializableExtra(GitService.BROADCAST_PROGRESS_DATA);
-			if (data.sequence > modCount) {
-				View[] ui = adapter.getItemProgressBar(data.receiverId);
-				if (ui != null) {
-					((ProgressBar) ui[0]).setIndeterminate(false);
-					((ProgressBar) ui[0]).setProgress(data.progress);
-					((TextView) ui[1]).setText(data.task);
-				}
-				modCount = data.sequence;
+		public void onProgress(ProgressBean data) {
+			View[] ui = adapter.getItemProgressBar(data.receiverId);
+			if (ui != null) {
+				((ProgressBar) ui[0]).setIndeterminate(false);
+				((ProgressBar) ui[0]).setProgress(data.progress);
+				((TextView) ui[1]).setText(formatProgress(data));
 			}
-
 		}
 
 	};
 
+	/**
+	 * Task name with rates: bytes received, units of task per second
+	 * and time left for the task, when known.
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private String formatProgress(ProgressBean data) {
+		List<String> stats = new ArrayList<String>();
+		if (data.bytes > 0) {
+			String received = Utils.formatFileSize(this, data.bytes);
+			if (data.bytesPerSecond > 0) {
+				received = getString(R.string.progress_received, received,
+						Utils.formatFileSize(this, data.bytesPerSecond));
+			}
+			stats.add(received);
+		}
+		if (data.unitsPerSecond > 0) {
+			stats.add(getString(R.string.progress_rate, data.unitsPerSecond));
+		}
+		if (data.eta >= 0) {
+			stats.add(getString(R.string.progress_eta,
+					DateUtils.formatElapsedTime(data.eta / 1000)));
+		}
+		if (stats.isEmpty()) {
+			return data.task;
+		}
+		return data.task + "\n" + TextUtils.join(" \u00b7 ", stats);
+	}
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_main);
+		getListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+
+			@Override
+			public boolean onItemLongClick(AdapterView<?> parent, View view,
+					int position, long id) {
+				Repo repo = adapter.getItem(position);
+				if ((repo.getState() == Repo.State.New)
+						|| (repo.getState() == Repo.State.Busy)) {
+					confirmCancel(repo);
+					return true;
+				}
+				return false;
+			}
+		});
+		findViewById(R.id.textSyncStatus).setOnClickListener(new View.OnClickListener() {
+
+			@Override
+			public void onClick(View v) {
+				showSyncSummary();
+			}
+		});
 	}
 
 	@Override
@@ -125,16 +198,19 @@ public class MainActivity extends ListActivity {
 		IntentFilter filter = new IntentFilter();
 		filter.addAction(GitService.BROADCAST_REFRESH);
 		registerReceiver(updateListener, filter);
-		IntentFilter progress = new IntentFilter();
-		progress.addAction(GitService.BROADCAST_PROGRESS);
-		registerReceiver(progressListener, progress);
+		ProgressChannel.getInstance().setListener(progressListener);
+		IntentFilter sync = new IntentFilter();
+		sync.addAction(GitService.BROADCAST_SYNC);
+		registerReceiver(syncListener, sync);
+		showSyncStatus(GitService.getSyncReport());
 	};
 
 	@Override
 	protected void onPause() {
 		super.onPause();
 		unregisterReceiver(updateListener);
-		unregisterReceiver(progressListener);
+		ProgressChannel.getInstance().setListener(null);
+		unregisterReceiver(syncListener);
 	}
 
 	@Override
@@ -154,6 +230,9 @@ public class MainActivity extends ListActivity {
 			Intent about = new Intent(this, AboutActivity.class);
 			startActivity(about);
 			break;
+		case R.id.main_action_sync_all:
+			syncAll();
+			break;
 		case R.id.main_action_trace:
 			Intent trace = new Intent(this, TraceActivity.class);
 			startActivity(trace);
@@ -176,6 +255,191 @@ public class MainActivity extends ListActivity {
 		}
 	}
 
+	/**
+	 * Ask GitService to stop running or queued command for a repo.
+	 * 
+	 * @param repo
+	 */
+	private void confirmCancel(final Repo repo) {
+		AlertDialog dlg = new AlertDialog.Builder(this)
+			.setMessage(R.string.confirm_cancel)
+			.setPositiveButton(getString(android.R.string.ok),
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						Intent cancel = new Intent(MainActivity.this, GitService.class);
+						cancel.putExtra(GitService.COMMAND, GitService.Command.Cancel);
+						cancel.putExtra(GitService.REPO, repo);
+						startService(cancel);
+						Toast.makeText(MainActivity.this, R.string.msg_cancelling,
+								Toast.LENGTH_SHORT).show();
+					}
+				}
+				)
+			.setNegativeButton(getString(android.R.string.cancel),
+				null
+				)
+			.create();
+		dlg.setCanceledOnTouchOutside(false);
+		dlg.show();
+	}
+
+	/**
+	 * Pull all local repos.
+	 * Repos with the same user at the same host share a password,
+	 * so it is asked once. Repos with unknown host are asked one by one.
+	 * Repos with no password given are skipped.
+	 */
+	private void syncAll() {
+		List<Repo> repos = new ArrayList<Repo>();
+		Map<String, List<Repo>> auth = new LinkedHashMap<String, List<Repo>>();
+		for (int i = 0; i < adapter.getCount(); i++) {
+			Repo repo = adapter.getItem(i);
+			if (repo.getState() != Repo.State.Local) continue;
+			repos.add(repo);
+			if (repo.getUserName() != null) {
+				String host = hostOf(repo.getAddress());
+				String key = repo.getUserName() + "@"
+						+ (TextUtils.isEmpty(host) ? repo.getAddress() : host);
+				List<Repo> same = auth.get(key);
+				if (same == null) {
+					same = new ArrayList<Repo>();
+					auth.put(key, same);
+				}
+				same.add(repo);
+			}
+		}
+		if (repos.isEmpty()) {
+			Toast.makeText(this, R.string.msg_sync_nothing, Toast.LENGTH_SHORT).show();
+			return;
+		}
+		askPasswords(repos, auth.entrySet().iterator(), new HashMap<String, String>());
+	}
+
+	/**
+	 * Host of git address, scp-like syntax included.
+	 * 
+	 * @param address
+	 * @return null if not known
+	 */
+	private static String hostOf(String address) {
+		try {
+			return new URIish(address).getHost();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ask passwords one by one, then start sync.
+	 * 
+	 * @param repos to sync
+	 * @param auth credential to repos using it, not asked yet
+	 * @param passwords repo folder to password
+	 */
+	private void askPasswords(final List<Repo> repos,
+			final Iterator<Map.Entry<String, List<Repo>>> auth,
+			final HashMap<String, String> passwords) {
+		if (!auth.hasNext()) {
+			startSync(repos, passwords);
+			return;
+		}
+		final Map.Entry<String, List<Repo>> next = auth.next();
+		final EditText passwd = new EditText(this);
+		passwd.setInputType(InputType.TYPE_CLASS_TEXT|InputType.TYPE_TEXT_VARIATION_PASSWORD);
+		AlertDialog dlg = new AlertDialog.Builder(this)
+			.setMessage(getString(R.string.passwd_request, next.getKey()))
+			.setPositiveButton(getString(android.R.string.ok),
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						String password = passwd.getText().toString();
+						if (TextUtils.isEmpty(password)) {
+							repos.removeAll(next.getValue());
+						} else {
+							for (Repo repo: next.getValue()) {
+								passwords.put(repo.getFolder(), password);
+							}
+						}
+						askPasswords(repos, auth, passwords);
+					}
+				}
+				)
+			.setNegativeButton(getString(android.R.string.cancel),
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						repos.removeAll(next.getValue());
+						askPasswords(repos, auth, passwords);
+					}
+				}
+				)
+			.create();
+		dlg.setCanceledOnTouchOutside(false);
+		dlg.setView(passwd);
+		dlg.show();
+	}
+
+	private void startSync(List<Repo> repos, HashMap<String, String> passwords) {
+		if (repos.isEmpty()) return;
+		DAO dao = new DAO(this);
+		dao.open(true);
+		for (Repo repo: repos) {
+			repo.setState(Repo.State.Busy);
+			dao.updateState(repo.getFolder(), Repo.State.Busy);
+		}
+		dao.close();
+		Intent sync = new Intent(this, GitService.class);
+		sync.putExtra(GitService.COMMAND, GitService.Command.Sync);
+		sync.putExtra(GitService.SYNC_REPOS, new ArrayList<Repo>(repos));
+		sync.putExtra(GitService.SYNC_PASSWORDS, passwords);
+		startService(sync);
+		adapter.notifyDataSetChanged();
+	}
+
+	/**
+	 * One line status of current or last sync.
+	 * 
+	 * @param report
+	 */
+	private void showSyncStatus(SyncReport report) {
+		TextView status = (TextView) findViewById(R.id.textSyncStatus);
+		if (report == null) {
+			status.setVisibility(View.GONE);
+			return;
+		}
+		String bytes = Utils.formatFileSize(this, report.getBytes());
+		String time = DateUtils.formatElapsedTime(report.getElapsed() / 1000);
+		if (report.isFinished()) {
+			status.setText(getString(R.string.sync_done, report.getTotal(),
+					report.count(SyncReport.Outcome.Updated),
+					report.count(SyncReport.Outcome.Failed), bytes, time));
+		} else {
+			status.setText(getString(R.string.sync_running, report.getDone(),
+					report.getTotal(), bytes, time));
+		}
+		status.setVisibility(View.VISIBLE);
+	}
+
+	/**
+	 * Result of every repo in current or last sync.
+	 */
+	private void showSyncSummary() {
+		SyncReport report = GitService.getSyncReport();
+		if (report == null) return;
+		List<SyncReport.Result> results = report.getResults();
+		String[] items = new String[results.size()];
+		for (int i = 0; i < items.length; i++) {
+			SyncReport.Result result = results.get(i);
+			items[i] = getString(R.string.sync_result, result.name, result.message,
+					Utils.formatFileSize(this, result.bytes),
+					DateUtils.formatElapsedTime(result.time / 1000));
+		}
+		AlertDialog dlg = new AlertDialog.Builder(this)
+			.setTitle(R.string.title_sync_summary)
+			.setItems(items, null)
+			.setPositiveButton(getString(R.string.close), null)
+			.create();
+		dlg.show();
+	}
+
 	/**
 	 * Data source for repos list Handle progress vies to be updated by
 	 * GitService.
@@ -229,7 +493,7 @@ public class MainActivity extends ListActivity {
 		}
 
 		/**
-		 * Return progress bar and label for update by GitService (via bcast).
+		 * Return progress bar and label for update by GitService.
 		 * Cache views in case pf multiple progress events.
 		 * 
 		 * @param folder
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.romanenco.gitt.GitService.ProgressBean;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * In-process progress from GitService to UI.
+ *
+ * Workers publish as often as they like: only latest progress per repo
+ * is kept, and it is delivered in UI thread at most every DELIVERY_MS.
+ * No broadcasts, nothing is serialized.
+ *
+ * @author Andrew Romanenco
+ *
+ */
+public class ProgressChannel {
+
+	/**
+	 * Min time between deliveries: 10 per second.
+	 */
+	static final long DELIVERY_MS = 100;
+
+	private static final ProgressChannel instance = new ProgressChannel();
+
+	/**
+	 * Receives progress in UI thread, ordered by sequence.
+	 */
+	public interface Listener {
+		void onProgress(ProgressBean progress);
+	}
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Latest progress by repo folder, not delivered yet.
+	 */
+	private final Map<String, ProgressBean> pending = new HashMap<String, ProgressBean>();
+
+	private int sequence;
+	private boolean scheduled;
+	private long lastDelivery;
+	private Listener listener;
+
+	private final Runnable deliver = new Runnable() {
+
+		@Override
+		public void run() {
+			deliver();
+		}
+	};
+
+	public static ProgressChannel getInstance() {
+		return instance;
+	}
+
+	private ProgressChannel() {
+	}
+
+	/**
+	 * Queue progress of a repo, replacing one not delivered yet.
+	 * Called from any thread; bean must not be changed after.
+	 *
+	 * @param progress
+	 */
+	public synchronized void publish(ProgressBean progress) {
+		progress.sequence = sequence++;
+		pending.put(progress.receiverId, progress);
+		if (!scheduled) {
+			scheduled = true;
+			long wait = lastDelivery + DELIVERY_MS - SystemClock.uptimeMillis();
+			handler.postDelayed(deliver, Math.max(0, wait));
+		}
+	}
+
+	/**
+	 * Set listener, or null to stop delivery.
+	 * Progress published meanwhile is dropped.
+	 * Called from UI thread.
+	 *
+	 * @param listener
+	 */
+	public synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	private void deliver() {
+		List<ProgressBean> batch;
+		Listener target;
+		synchronized (this) {
+			scheduled = false;
+			lastDelivery = SystemClock.uptimeMillis();
+			batch = new ArrayList<ProgressBean>(pending.values());
+			pending.clear();
+			target = listener;
+		}
+		if (target == null) return;
+		Collections.sort(batch, new Comparator<ProgressBean>() {
+
+			@Override
+			public int compare(ProgressBean lhs, ProgressBean rhs) {
+				return (lhs.sequence < rhs.sequence) ? -1
+						: ((lhs.sequence == rhs.sequence) ? 0 : 1);
+			}
+		});
+		for (ProgressBean progress: batch) {
+			target.onProgress(progress);
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Tunable values, stored in default shared preferences.
+ * There is no UI for them yet, defaults are used.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class Settings {
+	
+	private static final String NETWORK_TIMEOUT = "network_timeout";
+	private static final String GIT_THREADS = "git_threads";
+	private static final String SYNC_PARALLELISM = "sync_parallelism";
+	private static final String GC_LOOSE_LIMIT = "gc_loose_limit";
+	private static final String GC_PACK_LIMIT = "gc_pack_limit";
+	private static final String PACKED_GIT_MMAP = "packed_git_mmap";
+	
+	private SharedPreferences prefs;
+	
+	public Settings(Context context) {
+		prefs = PreferenceManager.getDefaultSharedPreferences(context);
+	}
+	
+	/**
+	 * Network timeout for clone/pull in seconds.
+	 * 
+	 * @return
+	 */
+	public int getNetworkTimeout() {
+		return prefs.getInt(NETWORK_TIMEOUT, 30);
+	}
+	
+	/**
+	 * Max number of git commands to run in parallel (for different repos).
+	 * By default it's number of cores, but not more than 3: most of work
+	 * is network bound and every command needs memory for jgit caches.
+	 * 
+	 * @return
+	 */
+	public int getGitThreads() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int threads = prefs.getInt(GIT_THREADS, Math.min(cores, 3));
+		return Math.max(1, threads);
+	}
+	
+	/**
+	 * Max number of pulls of sync all to run in parallel.
+	 * By default one thread of the pool is left for user commands.
+	 * 
+	 * @return
+	 */
+	public int getSyncParallelism() {
+		int parallel = prefs.getInt(SYNC_PARALLELISM, getGitThreads() - 1);
+		return Math.max(1, parallel);
+	}
+	
+	/**
+	 * Run gc when repo has more loose objects than this.
+	 * Lower than git's default (6700): lookups on flash are slow.
+	 * 
+	 * @return
+	 */
+	public int getGcLooseLimit() {
+		return prefs.getInt(GC_LOOSE_LIMIT, 1000);
+	}
+	
+	/**
+	 * Run gc when repo has more pack files than this.
+	 * Clone fetches every ref separately, so it may leave several packs.
+	 * 
+	 * @return
+	 */
+	public int getGcPackLimit() {
+		return prefs.getInt(GC_PACK_LIMIT, 8);
+	}
+	
+	/**
+	 * Map pack files to memory instead of reading windows to heap.
+	 * Off by default: mapped windows are not limited by heap budget
+	 * and may exhaust address space on 32 bit devices.
+	 * 
+	 * @return
+	 */
+	public boolean isPackedGitMmap() {
+		return prefs.getBoolean(PACKED_GIT_MMAP, false);
+	}
+
+}
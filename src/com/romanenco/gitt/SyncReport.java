@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress and results of pulling all repos at once.
+ * Sent to MainActivity with every change.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class SyncReport implements Serializable {
+
+	private static final long serialVersionUID = 2190785114962712401L;
+
+	/**
+	 * What happened to a repo
+	 */
+	public enum Outcome {
+		Updated, UpToDate, Failed, Cancelled
+	}
+
+	/**
+	 * Result for one repo
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public static class Result implements Serializable {
+
+		private static final long serialVersionUID = -6405176316845003325L;
+
+		public String name;
+		public Outcome outcome;
+		public String message;
+		public long bytes; // growth of object storage
+		public long time; // ms
+
+		public Result(String name, Outcome outcome, String message) {
+			this.name = name;
+			this.outcome = outcome;
+			this.message = message;
+		}
+	}
+
+	private final long started = System.currentTimeMillis();
+	private long finished;
+	private int total;
+	private final List<Result> results = new ArrayList<Result>();
+
+	void addRepo() {
+		total++;
+	}
+
+	void removeRepo() {
+		total--;
+		checkFinished();
+	}
+
+	void add(Result result) {
+		results.add(result);
+		checkFinished();
+	}
+
+	private void checkFinished() {
+		if (results.size() == total) {
+			finished = System.currentTimeMillis();
+		}
+	}
+
+	public boolean isFinished() {
+		return finished != 0;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getDone() {
+		return results.size();
+	}
+
+	public int count(Outcome outcome) {
+		int count = 0;
+		for (Result result: results) {
+			if (result.outcome == outcome) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Total growth of object storage, roughly bytes received.
+	 * 
+	 * @return
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for (Result result: results) {
+			bytes += result.bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Wall time since start, or till the end if finished.
+	 * 
+	 * @return ms
+	 */
+	public long getElapsed() {
+		return (isFinished() ? finished : System.currentTimeMillis()) - started;
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+}
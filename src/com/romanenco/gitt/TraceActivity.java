@@ -19,28 +19,308 @@
 
 package com.romanenco.gitt;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import com.romanenco.gitt.dao.DAO;
+import com.romanenco.gitt.dao.JournalEntry;
+import com.romanenco.gitt.git.MemoryBudget;
+import com.romanenco.gitt.git.RepoPool;
+
 import android.os.Bundle;
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
- * Show stack trace for last error to simplify problem solving.
+ * Show last errors with stack traces to simplify problem solving.
+ * Also shows memory budget with cache counters, journal of git
+ * operations with time by phase, summary by remote, and exports
+ * journal as CSV.
  * 
  * @author Andrew Romanenco
  * 
  */
 public class TraceActivity extends Activity {
 
+	/**
+	 * Number of journal records shown, all are exported.
+	 */
+	private static final int SHOWN = 100;
+
+	private final SimpleDateFormat dateFormat =
+			new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US);
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_trace);
 
-		String trace = GittApp.getLastErrorTrace();
-		if (trace != null) {
-			((TextView) findViewById(R.id.trace)).setText(trace);
+		showError(ErrorLog.getInstance().getLast());
+		showMemory();
+		showJournal();
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		getMenuInflater().inflate(R.menu.trace, menu);
+		return true;
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.trace_errors:
+			pickError();
+			break;
+		case R.id.trace_export:
+			exportJournal();
+			break;
+		case R.id.trace_clear:
+			DAO dao = new DAO(this);
+			dao.open(true);
+			dao.clearJournal();
+			dao.close();
+			showJournal();
+			break;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	/**
+	 * Error with repo, command, cause chain and stack trace.
+	 * 
+	 * @param record null if there were no errors
+	 */
+	private void showError(ErrorLog.Record record) {
+		TextView view = (TextView) findViewById(R.id.trace);
+		if (record == null) {
+			view.setText(R.string.no_errors);
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(errorTitle(record)).append("\n\n");
+		for (String cause: record.getCauses()) {
+			sb.append(cause).append('\n');
+		}
+		sb.append('\n').append(record.getTrace());
+		view.setText(sb.toString());
+	}
+
+	private String errorTitle(ErrorLog.Record record) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(dateFormat.format(new Date(record.time))).append(' ');
+		if (record.command != null) {
+			sb.append(record.command).append(' ');
+		}
+		if (record.repo != null) {
+			sb.append(record.repo).append(' ');
+		}
+		sb.append(record.getType());
+		return sb.toString();
+	}
+
+	/**
+	 * Choose error to show, newest first.
+	 */
+	private void pickError() {
+		final List<ErrorLog.Record> records = ErrorLog.getInstance().list();
+		if (records.isEmpty()) {
+			Toast.makeText(this, R.string.no_errors, Toast.LENGTH_SHORT).show();
+			return;
+		}
+		String[] titles = new String[records.size()];
+		for (int i = 0; i < titles.length; i++) {
+			titles[i] = errorTitle(records.get(i));
+		}
+		new AlertDialog.Builder(this)
+			.setTitle(R.string.action_error_history)
+			.setItems(titles, new DialogInterface.OnClickListener() {
+				public void onClick(DialogInterface dialog, int which) {
+					showError(records.get(which));
+				}
+			})
+			.show();
+	}
+
+	/**
+	 * jgit cache budget, heap usage and repo pool counters.
+	 */
+	private void showMemory() {
+		StringBuilder sb = new StringBuilder();
+		WindowCacheConfig config = MemoryBudget.getConfig();
+		if (config != null) {
+			sb.append("pack windows ").append(Utils.formatFileSize(this, config.getPackedGitLimit()))
+				.append(" (").append(Utils.formatFileSize(this, config.getPackedGitWindowSize()))
+				.append(" each").append(config.isPackedGitMMAP() ? ", mmap" : "").append(")")
+				.append("\ndelta bases ").append(Utils.formatFileSize(this, config.getDeltaBaseCacheLimit()))
+				.append(", streamed over ").append(Utils.formatFileSize(this, config.getStreamFileThreshold()))
+				.append('\n');
+		}
+		sb.append("heap ").append(Utils.formatFileSize(this, MemoryBudget.getHeapUsed()))
+			.append(" of ").append(Utils.formatFileSize(this, MemoryBudget.getHeapMax()))
+			.append(", cache flushes ").append(MemoryBudget.getFlushes());
+		RepoPool pool = RepoPool.getInstance();
+		sb.append("\nrepos open ").append(pool.getOpenCount())
+			.append(", hits ").append(pool.getHits())
+			.append(", misses ").append(pool.getMisses())
+			.append(", evictions ").append(pool.getEvictions())
+			.append("\nopening repos ").append(seconds(pool.getOpenTime()));
+		((TextView) findViewById(R.id.memory)).setText(sb.toString());
+	}
+
+	private List<JournalEntry> readJournal(int limit) {
+		DAO dao = new DAO(this);
+		dao.open(false);
+		List<JournalEntry> journal = dao.listJournal(limit);
+		dao.close();
+		return journal;
+	}
+
+	private void showJournal() {
+		List<JournalEntry> journal = readJournal(SHOWN);
+		TextView view = (TextView) findViewById(R.id.journal);
+		if (journal.isEmpty()) {
+			view.setText(R.string.journal_empty);
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String line: summaryByRemote(journal)) {
+			sb.append(line).append('\n');
+		}
+		sb.append('\n');
+		for (JournalEntry entry: journal) {
+			sb.append(dateFormat.format(new Date(entry.getDate()))).append(' ')
+				.append(entry.getCommand()).append(' ')
+				.append(entry.getName()).append(": ")
+				.append(entry.getResult().name());
+			if (entry.getError() != null) {
+				sb.append(" (").append(entry.getError()).append(')');
+			}
+			sb.append(", ").append(seconds(entry.getTime()));
+			if (entry.getReceive() >= 0) {
+				sb.append("\n  connect ").append(seconds(entry.getConnect()))
+					.append(", negotiate ").append(seconds(entry.getNegotiate()))
+					.append(", receive ").append(seconds(entry.getReceive()))
+					.append(", resolve ").append(seconds(entry.getResolve()))
+					.append(", checkout ").append(seconds(entry.getCheckout()))
+					.append("\n  ").append(Utils.formatFileSize(this, entry.getBytes()))
+					.append(", ").append(entry.getObjects()).append(" objects, ")
+					.append(entry.getDeltas()).append(" deltas");
+			}
+			sb.append('\n');
+		}
+		view.setText(sb.toString());
+	}
+
+	/**
+	 * Transfers by remote host: count, average connect time
+	 * and receive rate. Slow remotes stand out.
+	 * 
+	 * @param journal
+	 * @return
+	 */
+	private List<String> summaryByRemote(List<JournalEntry> journal) {
+		Map<String, long[]> remotes = new LinkedHashMap<String, long[]>();
+		for (JournalEntry entry: journal) {
+			if (entry.getReceive() < 0) continue;
+			String host = remoteOf(entry.getAddress());
+			long[] sums = remotes.get(host); // count, connect, bytes, receive
+			if (sums == null) {
+				sums = new long[4];
+				remotes.put(host, sums);
+			}
+			sums[0]++;
+			sums[1] += entry.getConnect();
+			sums[2] += entry.getBytes();
+			sums[3] += entry.getReceive();
 		}
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String, long[]> item: remotes.entrySet()) {
+			long[] sums = item.getValue();
+			long rate = (sums[3] > 0) ? (sums[2] * 1000 / sums[3]) : 0;
+			result.add(getString(R.string.journal_remote, item.getKey(), sums[0],
+					seconds(sums[1] / sums[0]), Utils.formatFileSize(this, rate)));
+		}
+		return result;
+	}
+
+	/**
+	 * Share whole journal as CSV.
+	 */
+	private void exportJournal() {
+		StringBuilder csv = new StringBuilder();
+		csv.append("date,folder,name,address,command,result,error,time,connect,"
+				+ "negotiate,receive,resolve,checkout,bytes,objects,deltas\n");
+		for (JournalEntry entry: readJournal(0)) {
+			csv.append(dateFormat.format(new Date(entry.getDate()))).append(',')
+				.append(quote(entry.getFolder())).append(',')
+				.append(quote(entry.getName())).append(',')
+				.append(quote(entry.getAddress())).append(',')
+				.append(entry.getCommand()).append(',')
+				.append(entry.getResult().name()).append(',')
+				.append((entry.getError() == null) ? "" : entry.getError()).append(',')
+				.append(entry.getTime()).append(',')
+				.append(entry.getConnect()).append(',')
+				.append(entry.getNegotiate()).append(',')
+				.append(entry.getReceive()).append(',')
+				.append(entry.getResolve()).append(',')
+				.append(entry.getCheckout()).append(',')
+				.append(entry.getBytes()).append(',')
+				.append(entry.getObjects()).append(',')
+				.append(entry.getDeltas()).append('\n');
+		}
+		Intent send = new Intent(Intent.ACTION_SEND);
+		send.setType("text/csv");
+		send.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.journal_subject));
+		send.putExtra(Intent.EXTRA_TEXT, csv.toString());
+		startActivity(Intent.createChooser(send, getString(R.string.action_export_journal)));
+	}
+
+	private static String quote(String value) {
+		if (value == null) return "";
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String seconds(long ms) {
+		return String.format(Locale.US, "%.1fs", ms / 1000.0);
+	}
 
+	/**
+	 * Host of remote address, for url or scp-like syntax.
+	 * 
+	 * @param address
+	 * @return
+	 */
+	static String remoteOf(String address) {
+		String host = address;
+		int scheme = host.indexOf("://");
+		if (scheme >= 0) {
+			host = host.substring(scheme + 3);
+		}
+		int at = host.indexOf('@');
+		if (at >= 0) {
+			host = host.substring(at + 1);
+		}
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if ((c == '/') || (c == ':')) {
+				return host.substring(0, i);
+			}
+		}
+		return host;
 	}
 
 }
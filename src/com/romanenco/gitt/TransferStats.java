@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transfer figures of one clone/pull: bytes received and time
+ * and units (objects, deltas, files) of every phase reported by jgit.
+ * 
+ * Updated by one worker thread; finished stats are not changed.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class TransferStats implements Serializable {
+
+	private static final long serialVersionUID = -2745018391148732054L;
+
+	/**
+	 * One task reported by jgit, e.g. "Receiving objects"
+	 */
+	public static class Phase implements Serializable {
+
+		private static final long serialVersionUID = 6290455132875102183L;
+
+		public final String name;
+		public long start; // ms since operation start
+		public int total; // 0 if not known
+		public int units;
+		public long time; // ms
+
+		Phase(String name, int total) {
+			this.name = name;
+			this.total = total;
+		}
+	}
+
+	private final long started = System.currentTimeMillis();
+	private long finished;
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private long phaseStarted;
+	private long bytes;
+	private long firstByte; // time bytes were seen first
+
+	void beginPhase(String name, int total) {
+		long now = System.currentTimeMillis();
+		closePhase(now);
+		Phase phase = new Phase(name, total);
+		phase.start = now - started;
+		phases.add(phase);
+		phaseStarted = now;
+	}
+
+	void update(int units) {
+		Phase phase = getPhase();
+		if (phase != null) {
+			phase.units = units;
+		}
+	}
+
+	void setBytes(long bytes) {
+		if ((firstByte == 0) && (bytes > 0)) {
+			firstByte = System.currentTimeMillis();
+		}
+		this.bytes = bytes;
+	}
+
+	void finish() {
+		finished = System.currentTimeMillis();
+		closePhase(finished);
+	}
+
+	private void closePhase(long now) {
+		Phase phase = getPhase();
+		if ((phase != null) && (phase.time == 0)) {
+			phase.time = Math.max(1, now - phaseStarted);
+		}
+	}
+
+	/**
+	 * Current or last phase.
+	 * 
+	 * @return null if nothing was reported
+	 */
+	public Phase getPhase() {
+		return phases.isEmpty() ? null : phases.get(phases.size() - 1);
+	}
+
+	public List<Phase> getPhases() {
+		return phases;
+	}
+
+	public boolean isFinished() {
+		return finished != 0;
+	}
+
+	/**
+	 * Bytes received, measured as growth of packs.
+	 * 
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Wall time since start, or till the end if finished.
+	 * 
+	 * @return ms
+	 */
+	public long getElapsed() {
+		return (isFinished() ? finished : System.currentTimeMillis()) - started;
+	}
+
+	/**
+	 * Average receive rate since first byte.
+	 * 
+	 * @return bytes per second, 0 if not known
+	 */
+	public long getBytesPerSecond() {
+		if (firstByte == 0) return 0;
+		long end = isFinished() ? finished : System.currentTimeMillis();
+		long time = end - firstByte;
+		return (time <= 0) ? 0 : (bytes * 1000 / time);
+	}
+
+	/**
+	 * Rate of current phase.
+	 * 
+	 * @return units per second, 0 if not known
+	 */
+	public long getUnitsPerSecond() {
+		Phase phase = getPhase();
+		if (phase == null) return 0;
+		long time = (phase.time != 0) ? phase.time : (System.currentTimeMillis() - phaseStarted);
+		return (time <= 0) ? 0 : ((long)phase.units * 1000 / time);
+	}
+
+	/**
+	 * Time left for current phase at its rate so far.
+	 * 
+	 * @return ms, -1 if not known
+	 */
+	public long getEta() {
+		Phase phase = getPhase();
+		if ((phase == null) || (phase.total <= 0) || (phase.units == 0) || isFinished()) {
+			return -1;
+		}
+		long time = System.currentTimeMillis() - phaseStarted;
+		return Math.max(0, (long)(phase.total - phase.units) * time / phase.units);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("bytes=").append(bytes)
+			.append(" rate=").append(getBytesPerSecond()).append("B/s")
+			.append(" time=").append(getElapsed()).append("ms");
+		for (Phase phase: phases) {
+			sb.append("\n").append(phase.name).append(": ").append(phase.units)
+				.append(" in ").append(phase.time).append("ms");
+		}
+		return sb.toString();
+	}
+
+}
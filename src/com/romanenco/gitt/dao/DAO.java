@@ -29,13 +29,18 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
 /**
- * DAO to manage local repos.
+ * DAO to manage local repos and operations journal.
  * 
  * @author Andrew Romanenco
  * 
  */
 public class DAO {
 
+	/**
+	 * Max number of journal records.
+	 */
+	private static final int JOURNAL_SIZE = 2000;
+
 	private DAOHelper helper;
 	private SQLiteDatabase database;
 
@@ -86,22 +91,40 @@ public class DAO {
 		values.put(Repo.SIZE, repo.getSize());
 		values.put(Repo.USERNAME, repo.getUserName());
 		values.put(Repo.STATE, repo.getState().name());
+		values.put(Repo.PROFILE, repo.getProfile().name());
+		values.put(Repo.REFS, repo.getRefs());
+		values.put(Repo.SPARSE, repo.getSparse());
+		values.put(Repo.OBJECTS_ONLY, repo.isObjectsOnly() ? 1 : 0);
 		database.insert(Repo.TABLE, null, values);
 	}
 	
+	private static final String[] COLUMNS = {
+		Repo._ID,
+		Repo.FOLDER,
+		Repo.NAME,
+		Repo.ADDRESS,
+		Repo.SIZE,
+		Repo.USERNAME,
+		Repo.STATE,
+		Repo.ERROR,
+		Repo.PROFILE,
+		Repo.REFS,
+		Repo.PACK_SIZE,
+		Repo.LOOSE_SIZE,
+		Repo.WORKTREE_SIZE,
+		Repo.REMOTE_STATE,
+		Repo.GC_DATE,
+		Repo.GC_BEFORE,
+		Repo.GC_AFTER,
+		Repo.GC_TIME,
+		Repo.SPARSE,
+		Repo.OBJECTS_ONLY
+	};
+	
 	public List<Repo> listAll() {
 		List<Repo> result = new ArrayList<Repo>();
-		Cursor cursor = database.query(Repo.TABLE,
-				new String[] {
-					Repo._ID,
-					Repo.FOLDER,
-					Repo.NAME,
-					Repo.ADDRESS,
-					Repo.SIZE,
-					Repo.USERNAME,
-					Repo.STATE,
-					Repo.ERROR}
-			, null, null, null, null, Repo.NAME);
+		Cursor cursor = database.query(Repo.TABLE, COLUMNS,
+				null, null, null, null, Repo.NAME);
 		if (cursor == null) return result;
 		
 		cursor.moveToFirst();
@@ -114,16 +137,49 @@ public class DAO {
 	    return result;
 	}
 
+	/**
+	 * Current state of a repo.
+	 * 
+	 * @param folder
+	 * @return null if there is no such repo
+	 */
+	public Repo getRepo(String folder) {
+		Cursor cursor = database.query(Repo.TABLE, COLUMNS,
+				Repo.FOLDER + "=?", new String[] {folder},
+				null, null, null);
+		if (cursor == null) return null;
+		Repo result = null;
+		if (cursor.moveToFirst()) {
+			result = readAsRepo(cursor);
+		}
+		cursor.close();
+		return result;
+	}
+
 	private Repo readAsRepo(Cursor cursor) {
 		Repo repo = new Repo();
 		repo.setId(cursor.getInt(0));
 		repo.setFolder(cursor.getString(1));
 		repo.setName(cursor.getString(2));
 		repo.setAddress(cursor.getString(3));
-		repo.setSize(cursor.getInt(4));
+		repo.setSize(cursor.getLong(4));
 		repo.setUserName(cursor.getString(5));
 		repo.setState(Repo.State.valueOf(cursor.getString(6)));
 		repo.setError(cursor.getString(7));
+		if (!cursor.isNull(8)) {
+			repo.setProfile(Repo.Profile.valueOf(cursor.getString(8)));
+		}
+		repo.setRefs(cursor.getString(9));
+		repo.setPackSize(cursor.getLong(10));
+		repo.setLooseSize(cursor.getLong(11));
+		repo.setWorktreeSize(cursor.getLong(12));
+		repo.setRemoteState(cursor.getString(13));
+		repo.setGcDate(cursor.getLong(14));
+		repo.setGcBefore(cursor.getLong(15));
+		repo.setGcAfter(cursor.getLong(16));
+		repo.setGcTime(cursor.getLong(17));
+		repo.setSparse(cursor.getString(18));
+		repo.setObjectsOnly(cursor.getInt(19) != 0);
 		return repo;
 	}
 	
@@ -137,11 +193,177 @@ public class DAO {
 		values.put(Repo.SIZE, repo.getSize());
 		values.put(Repo.STATE, repo.getState().name());
 		values.put(Repo.ERROR, repo.getError());
+		values.put(Repo.REFS, repo.getRefs());
+		values.put(Repo.PACK_SIZE, repo.getPackSize());
+		values.put(Repo.LOOSE_SIZE, repo.getLooseSize());
+		values.put(Repo.WORKTREE_SIZE, repo.getWorktreeSize());
+		database.update(Repo.TABLE, values, Repo.FOLDER + " = ?", new String[]{repo.getFolder()});
+	}
+
+	/**
+	 * State only, other fields are left as stored:
+	 * repo copy of the caller may be stale.
+	 * 
+	 * @param folder
+	 * @param state
+	 */
+	public void updateState(String folder, Repo.State state) {
+		ContentValues values = new ContentValues();
+		values.put(Repo.STATE, state.name());
+		database.update(Repo.TABLE, values, Repo.FOLDER + " = ?", new String[]{folder});
+	}
+
+	/**
+	 * Remote state is updated by clone and pull only,
+	 * so it is not overwritten by stale repo copies.
+	 * 
+	 * @param folder
+	 * @param state
+	 */
+	public void updateRemoteState(String folder, String state) {
+		ContentValues values = new ContentValues();
+		values.put(Repo.REMOTE_STATE, state);
+		database.update(Repo.TABLE, values, Repo.FOLDER + " = ?", new String[]{folder});
+	}
+
+	/**
+	 * Sizes and gc stats only, state is not touched:
+	 * gc runs in background while repo is usable.
+	 * 
+	 * @param repo
+	 */
+	public void updateGc(Repo repo) {
+		ContentValues values = new ContentValues();
+		values.put(Repo.SIZE, repo.getSize());
+		values.put(Repo.PACK_SIZE, repo.getPackSize());
+		values.put(Repo.LOOSE_SIZE, repo.getLooseSize());
+		values.put(Repo.GC_DATE, repo.getGcDate());
+		values.put(Repo.GC_BEFORE, repo.getGcBefore());
+		values.put(Repo.GC_AFTER, repo.getGcAfter());
+		values.put(Repo.GC_TIME, repo.getGcTime());
 		database.update(Repo.TABLE, values, Repo.FOLDER + " = ?", new String[]{repo.getFolder()});
 	}
 
+	/**
+	 * Sparse patterns are changed by user only.
+	 * 
+	 * @param folder
+	 * @param sparse
+	 */
+	public void updateSparse(String folder, String sparse) {
+		ContentValues values = new ContentValues();
+		values.put(Repo.SPARSE, sparse);
+		database.update(Repo.TABLE, values, Repo.FOLDER + " = ?", new String[]{folder});
+	}
+
+	/**
+	 * Working tree mode is changed by user only.
+	 * 
+	 * @param folder
+	 * @param objectsOnly
+	 */
+	public void updateObjectsOnly(String folder, boolean objectsOnly) {
+		ContentValues values = new ContentValues();
+		values.put(Repo.OBJECTS_ONLY, objectsOnly ? 1 : 0);
+		database.update(Repo.TABLE, values, Repo.FOLDER + " = ?", new String[]{folder});
+	}
+
 	public void delete(String folder) {
 		database.delete(Repo.TABLE, Repo.FOLDER + " = ?", new String[]{folder});
 	}
 
+	/**
+	 * Add journal record; only last JOURNAL_SIZE records are kept.
+	 * 
+	 * @param entry
+	 */
+	public void addJournal(JournalEntry entry) {
+		ContentValues values = new ContentValues();
+		values.put(JournalEntry.DATE, entry.getDate());
+		values.put(JournalEntry.FOLDER, entry.getFolder());
+		values.put(JournalEntry.NAME, entry.getName());
+		values.put(JournalEntry.ADDRESS, entry.getAddress());
+		values.put(JournalEntry.COMMAND, entry.getCommand());
+		values.put(JournalEntry.RESULT, entry.getResult().name());
+		values.put(JournalEntry.ERROR, entry.getError());
+		values.put(JournalEntry.TIME, entry.getTime());
+		values.put(JournalEntry.CONNECT, entry.getConnect());
+		values.put(JournalEntry.NEGOTIATE, entry.getNegotiate());
+		values.put(JournalEntry.RECEIVE, entry.getReceive());
+		values.put(JournalEntry.RESOLVE, entry.getResolve());
+		values.put(JournalEntry.CHECKOUT, entry.getCheckout());
+		values.put(JournalEntry.BYTES, entry.getBytes());
+		values.put(JournalEntry.OBJECTS, entry.getObjects());
+		values.put(JournalEntry.DELTAS, entry.getDeltas());
+		long id = database.insert(JournalEntry.TABLE, null, values);
+		if (id > JOURNAL_SIZE) {
+			database.delete(JournalEntry.TABLE, JournalEntry._ID + " <= ?",
+					new String[]{String.valueOf(id - JOURNAL_SIZE)});
+		}
+	}
+	
+	private static final String[] JOURNAL_COLUMNS = {
+		JournalEntry._ID,
+		JournalEntry.DATE,
+		JournalEntry.FOLDER,
+		JournalEntry.NAME,
+		JournalEntry.ADDRESS,
+		JournalEntry.COMMAND,
+		JournalEntry.RESULT,
+		JournalEntry.ERROR,
+		JournalEntry.TIME,
+		JournalEntry.CONNECT,
+		JournalEntry.NEGOTIATE,
+		JournalEntry.RECEIVE,
+		JournalEntry.RESOLVE,
+		JournalEntry.CHECKOUT,
+		JournalEntry.BYTES,
+		JournalEntry.OBJECTS,
+		JournalEntry.DELTAS
+	};
+
+	/**
+	 * Journal records, newest first.
+	 * 
+	 * @param limit max records, 0 for all
+	 * @return
+	 */
+	public List<JournalEntry> listJournal(int limit) {
+		List<JournalEntry> result = new ArrayList<JournalEntry>();
+		Cursor cursor = database.query(JournalEntry.TABLE, JOURNAL_COLUMNS,
+				null, null, null, null, JournalEntry._ID + " DESC",
+				(limit > 0) ? String.valueOf(limit) : null);
+		if (cursor == null) return result;
+		
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			JournalEntry entry = new JournalEntry();
+			entry.setId(cursor.getInt(0));
+			entry.setDate(cursor.getLong(1));
+			entry.setFolder(cursor.getString(2));
+			entry.setName(cursor.getString(3));
+			entry.setAddress(cursor.getString(4));
+			entry.setCommand(cursor.getString(5));
+			entry.setResult(JournalEntry.Result.valueOf(cursor.getString(6)));
+			entry.setError(cursor.getString(7));
+			entry.setTime(cursor.getLong(8));
+			entry.setConnect(cursor.getLong(9));
+			entry.setNegotiate(cursor.getLong(10));
+			entry.setReceive(cursor.getLong(11));
+			entry.setResolve(cursor.getLong(12));
+			entry.setCheckout(cursor.getLong(13));
+			entry.setBytes(cursor.getLong(14));
+			entry.setObjects(cursor.getInt(15));
+			entry.setDeltas(cursor.getInt(16));
+			result.add(entry);
+			cursor.moveToNext();
+		}
+		cursor.close();
+		return result;
+	}
+
+	public void clearJournal() {
+		database.delete(JournalEntry.TABLE, null, null);
+	}
+
 }
@@ -32,7 +32,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 public class DAOHelper extends SQLiteOpenHelper {
 	
 	private static final String DATABASE_NAME = "repos.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
 
 	public DAOHelper(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -41,11 +41,44 @@ public class DAOHelper extends SQLiteOpenHelper {
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(Repo.CREATE_SQL);
+		db.execSQL(JournalEntry.CREATE_SQL);
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		//Nothing for version one
+		if (oldVersion < 2) {
+			for (String sql: Repo.UPGRADE_2_SQL) {
+				db.execSQL(sql);
+			}
+		}
+		if (oldVersion < 3) {
+			for (String sql: Repo.UPGRADE_3_SQL) {
+				db.execSQL(sql);
+			}
+		}
+		if (oldVersion < 4) {
+			for (String sql: Repo.UPGRADE_4_SQL) {
+				db.execSQL(sql);
+			}
+		}
+		if (oldVersion < 5) {
+			for (String sql: Repo.UPGRADE_5_SQL) {
+				db.execSQL(sql);
+			}
+		}
+		if (oldVersion < 6) {
+			for (String sql: Repo.UPGRADE_6_SQL) {
+				db.execSQL(sql);
+			}
+		}
+		if (oldVersion < 7) {
+			for (String sql: Repo.UPGRADE_7_SQL) {
+				db.execSQL(sql);
+			}
+		}
+		if (oldVersion < 8) {
+			db.execSQL(JournalEntry.CREATE_SQL);
+		}
 	}
 
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.dao;
+
+import java.io.Serializable;
+
+/**
+ * Journal record of one git operation: result and where time went.
+ * Phase times are -1 when phase is not part of operation.
+ * 
+ * @author Andrew Romanenco
+ * 
+ */
+public class JournalEntry implements Serializable {
+
+	private static final long serialVersionUID = 3316957402285610475L;
+
+	public static final String TABLE = "journal";
+	
+	public static final String _ID = "_ID";
+	public static final String DATE = "DATE";
+	public static final String FOLDER = "FOLDER";
+	public static final String NAME = "NAME";
+	public static final String ADDRESS = "ADDRESS";
+	public static final String COMMAND = "COMMAND";
+	public static final String RESULT = "RESULT";
+	public static final String ERROR = "ERROR";
+	public static final String TIME = "TIME";
+	public static final String CONNECT = "CONNECT";
+	public static final String NEGOTIATE = "NEGOTIATE";
+	public static final String RECEIVE = "RECEIVE";
+	public static final String RESOLVE = "RESOLVE";
+	public static final String CHECKOUT = "CHECKOUT";
+	public static final String BYTES = "BYTES";
+	public static final String OBJECTS = "OBJECTS";
+	public static final String DELTAS = "DELTAS";
+	
+	/**
+	 * How operation ended
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public enum Result {
+		Done,
+		UpToDate,	// pull with nothing to fetch
+		Failed,
+		Cancelled
+	}
+	
+	public static final String CREATE_SQL = "CREATE TABLE "
+			+ TABLE 
+			+ " ("
+			+ " _ID integer primary key autoincrement,"
+			+ " DATE integer,"
+			+ " FOLDER text,"
+			+ " NAME text,"
+			+ " ADDRESS text,"
+			+ " COMMAND text,"
+			+ " RESULT text,"
+			+ " ERROR text null,"
+			+ " TIME integer,"
+			+ " CONNECT integer default -1,"
+			+ " NEGOTIATE integer default -1,"
+			+ " RECEIVE integer default -1,"
+			+ " RESOLVE integer default -1,"
+			+ " CHECKOUT integer default -1,"
+			+ " BYTES integer default 0,"
+			+ " OBJECTS integer default 0,"
+			+ " DELTAS integer default 0"
+			+ ")";
+
+	private int id;
+	private long date;
+	private String folder;
+	private String name;
+	private String address;
+	private String command;
+	private Result result;
+	private String error;
+	private long time;
+	private long connect = -1;
+	private long negotiate = -1;
+	private long receive = -1;
+	private long resolve = -1;
+	private long checkout = -1;
+	private long bytes;
+	private int objects;
+	private int deltas;
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Start time
+	 * 
+	 * @return
+	 */
+	public long getDate() {
+		return date;
+	}
+
+	public void setDate(long date) {
+		this.date = date;
+	}
+
+	public String getFolder() {
+		return folder;
+	}
+
+	public void setFolder(String folder) {
+		this.folder = folder;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Remote address at the time of operation
+	 * 
+	 * @return
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	public void setAddress(String address) {
+		this.address = address;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public void setCommand(String command) {
+		this.command = command;
+	}
+
+	public Result getResult() {
+		return result;
+	}
+
+	public void setResult(Result result) {
+		this.result = result;
+	}
+
+	/**
+	 * Error class name, null if there was no error
+	 * 
+	 * @return
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * Total time, ms
+	 * 
+	 * @return
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Time till first progress from remote, ms
+	 * 
+	 * @return
+	 */
+	public long getConnect() {
+		return connect;
+	}
+
+	public void setConnect(long connect) {
+		this.connect = connect;
+	}
+
+	/**
+	 * Time spent by remote preparing pack, ms
+	 * 
+	 * @return
+	 */
+	public long getNegotiate() {
+		return negotiate;
+	}
+
+	public void setNegotiate(long negotiate) {
+		this.negotiate = negotiate;
+	}
+
+	public long getReceive() {
+		return receive;
+	}
+
+	public void setReceive(long receive) {
+		this.receive = receive;
+	}
+
+	public long getResolve() {
+		return resolve;
+	}
+
+	public void setResolve(long resolve) {
+		this.resolve = resolve;
+	}
+
+	/**
+	 * Time after transfer: checkout, merge and index update, ms
+	 * 
+	 * @return
+	 */
+	public long getCheckout() {
+		return checkout;
+	}
+
+	public void setCheckout(long checkout) {
+		this.checkout = checkout;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public int getObjects() {
+		return objects;
+	}
+
+	public void setObjects(int objects) {
+		this.objects = objects;
+	}
+
+	public int getDeltas() {
+		return deltas;
+	}
+
+	public void setDeltas(int deltas) {
+		this.deltas = deltas;
+	}
+
+}
@@ -20,6 +20,10 @@
 package com.romanenco.gitt.dao;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.text.TextUtils;
 
 /**
  * Git repo data object.
@@ -41,6 +45,18 @@ public class Repo implements Serializable {
 	public static final String USERNAME = "USERNAME";
 	public static final String STATE = "STATE";
 	public static final String ERROR = "ERROR";
+	public static final String PROFILE = "PROFILE";
+	public static final String REFS = "REFS";
+	public static final String PACK_SIZE = "PACK_SIZE";
+	public static final String LOOSE_SIZE = "LOOSE_SIZE";
+	public static final String WORKTREE_SIZE = "WORKTREE_SIZE";
+	public static final String REMOTE_STATE = "REMOTE_STATE";
+	public static final String GC_DATE = "GC_DATE";
+	public static final String GC_BEFORE = "GC_BEFORE";
+	public static final String GC_AFTER = "GC_AFTER";
+	public static final String GC_TIME = "GC_TIME";
+	public static final String SPARSE = "SPARSE";
+	public static final String OBJECTS_ONLY = "OBJECTS_ONLY";
 	
 	/**
 	 * Repo lifecycle
@@ -55,6 +71,18 @@ public class Repo implements Serializable {
 		Busy		// busy by pull or checkout
 	}
 	
+	/**
+	 * What refs are fetched on clone and pull
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public enum Profile {
+		Default,	// remote's default branch only
+		Selected,	// branches and tags listed in refs
+		All			// all branches and tags
+	}
+	
 	public static final String CREATE_SQL = "CREATE TABLE "
 			+ TABLE 
 			+ " ("
@@ -65,17 +93,90 @@ public class Repo implements Serializable {
 			+ " SIZE integer,"
 			+ " USERNAME text null,"
 			+ " STATE state,"
-			+ " ERROR text null"
+			+ " ERROR text null,"
+			+ " PROFILE text null,"
+			+ " REFS text null,"
+			+ " PACK_SIZE integer default -1,"
+			+ " LOOSE_SIZE integer default -1,"
+			+ " WORKTREE_SIZE integer default -1,"
+			+ " REMOTE_STATE text null,"
+			+ " GC_DATE integer default 0,"
+			+ " GC_BEFORE integer default -1,"
+			+ " GC_AFTER integer default -1,"
+			+ " GC_TIME integer default 0,"
+			+ " SPARSE text null,"
+			+ " OBJECTS_ONLY integer default 0"
 			+ ")";
+	
+	/**
+	 * Version 2: clone profile.
+	 */
+	public static final String[] UPGRADE_2_SQL = {
+		"ALTER TABLE " + TABLE + " ADD COLUMN PROFILE text null",
+		"ALTER TABLE " + TABLE + " ADD COLUMN REFS text null",
+		"UPDATE " + TABLE + " SET PROFILE = '" + Profile.All.name() + "'"
+	};
+	
+	/**
+	 * Version 3: size split. Not known (-1) till next operation.
+	 */
+	public static final String[] UPGRADE_3_SQL = {
+		"ALTER TABLE " + TABLE + " ADD COLUMN PACK_SIZE integer default -1",
+		"ALTER TABLE " + TABLE + " ADD COLUMN LOOSE_SIZE integer default -1",
+		"ALTER TABLE " + TABLE + " ADD COLUMN WORKTREE_SIZE integer default -1"
+	};
+	
+	/**
+	 * Version 4: remote refs seen by last pull.
+	 */
+	public static final String[] UPGRADE_4_SQL = {
+		"ALTER TABLE " + TABLE + " ADD COLUMN REMOTE_STATE text null"
+	};
+	
+	/**
+	 * Version 5: last gc stats.
+	 */
+	public static final String[] UPGRADE_5_SQL = {
+		"ALTER TABLE " + TABLE + " ADD COLUMN GC_DATE integer default 0",
+		"ALTER TABLE " + TABLE + " ADD COLUMN GC_BEFORE integer default -1",
+		"ALTER TABLE " + TABLE + " ADD COLUMN GC_AFTER integer default -1",
+		"ALTER TABLE " + TABLE + " ADD COLUMN GC_TIME integer default 0"
+	};
+	
+	/**
+	 * Version 6: sparse checkout.
+	 */
+	public static final String[] UPGRADE_6_SQL = {
+		"ALTER TABLE " + TABLE + " ADD COLUMN SPARSE text null"
+	};
+	
+	/**
+	 * Version 7: repo without working tree.
+	 */
+	public static final String[] UPGRADE_7_SQL = {
+		"ALTER TABLE " + TABLE + " ADD COLUMN OBJECTS_ONLY integer default 0"
+	};
 
 	private int id;
 	private String folder;
 	private String name;
 	private String address;
 	private long size;
+	private long packSize = -1;
+	private long looseSize = -1;
+	private long worktreeSize = -1;
+	private String remoteState;
+	private long gcDate;
+	private long gcBefore = -1;
+	private long gcAfter = -1;
+	private long gcTime;
+	private String sparse;
+	private boolean objectsOnly;
 	private String userName;
 	private State state;
 	private String error;
+	private Profile profile = Profile.All;
+	private String refs;
 	
 
 	public String getFolder() {
@@ -118,6 +219,119 @@ public class Repo implements Serializable {
 		this.size = size;
 	}
 
+	/**
+	 * Bytes in pack files.
+	 * 
+	 * @return -1 if not known
+	 */
+	public long getPackSize() {
+		return packSize;
+	}
+
+	public void setPackSize(long packSize) {
+		this.packSize = packSize;
+	}
+
+	/**
+	 * Bytes in loose objects.
+	 * 
+	 * @return -1 if not known
+	 */
+	public long getLooseSize() {
+		return looseSize;
+	}
+
+	public void setLooseSize(long looseSize) {
+		this.looseSize = looseSize;
+	}
+
+	/**
+	 * Bytes in checked out files.
+	 * 
+	 * @return -1 if not known
+	 */
+	public long getWorktreeSize() {
+		return worktreeSize;
+	}
+
+	public void setWorktreeSize(long worktreeSize) {
+		this.worktreeSize = worktreeSize;
+	}
+	
+	/**
+	 * Size split is known only after first clone/pull/checkout.
+	 * 
+	 * @return
+	 */
+	public boolean isSizeKnown() {
+		return (packSize >= 0) && (looseSize >= 0) && (worktreeSize >= 0);
+	}
+
+	/**
+	 * Fingerprint of remote refs as of last successful pull.
+	 * 
+	 * @return null if not known
+	 */
+	public String getRemoteState() {
+		return remoteState;
+	}
+
+	public void setRemoteState(String remoteState) {
+		this.remoteState = remoteState;
+	}
+
+	/**
+	 * When last gc finished.
+	 * 
+	 * @return ms, 0 if never
+	 */
+	public long getGcDate() {
+		return gcDate;
+	}
+
+	public void setGcDate(long gcDate) {
+		this.gcDate = gcDate;
+	}
+
+	/**
+	 * Objects size (packs and loose) before last gc.
+	 * 
+	 * @return -1 if not known
+	 */
+	public long getGcBefore() {
+		return gcBefore;
+	}
+
+	public void setGcBefore(long gcBefore) {
+		this.gcBefore = gcBefore;
+	}
+
+	/**
+	 * Objects size (packs and loose) after last gc.
+	 * 
+	 * @return -1 if not known
+	 */
+	public long getGcAfter() {
+		return gcAfter;
+	}
+
+	public void setGcAfter(long gcAfter) {
+		this.gcAfter = gcAfter;
+	}
+
+	/**
+	 * Duration of last gc.
+	 * 
+	 * @return ms
+	 */
+	public long getGcTime() {
+		return gcTime;
+	}
+
+	public void setGcTime(long gcTime) {
+		this.gcTime = gcTime;
+	}
+
 	public String getUserName() {
 		return userName;
 	}
@@ -142,4 +356,99 @@ public class Repo implements Serializable {
 		this.error = error;
 	}
 
+	public Profile getProfile() {
+		return profile;
+	}
+
+	public void setProfile(Profile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Full ref names, one per line.
+	 * 
+	 * @return
+	 */
+	public String getRefs() {
+		return refs;
+	}
+
+	public void setRefs(String refs) {
+		this.refs = refs;
+	}
+	
+	public List<String> getRefList() {
+		List<String> result = new ArrayList<String>();
+		if (!TextUtils.isEmpty(refs)) {
+			for (String ref: refs.split("\n")) {
+				if (ref.length() > 0) result.add(ref);
+			}
+		}
+		return result;
+	}
+	
+	public void setRefList(List<String> list) {
+		refs = TextUtils.join("\n", list);
+	}
+
+	/**
+	 * Folders to check out, one per line. Empty for all.
+	 * 
+	 * @return
+	 */
+	public String getSparse() {
+		return sparse;
+	}
+
+	public void setSparse(String sparse) {
+		this.sparse = sparse;
+	}
+	
+	/**
+	 * Repo has no working tree: everything is read from object database.
+	 * 
+	 * @return
+	 */
+	public boolean isObjectsOnly() {
+		return objectsOnly;
+	}
+
+	public void setObjectsOnly(boolean objectsOnly) {
+		this.objectsOnly = objectsOnly;
+	}
+	
+	/**
+	 * Folders to check out, relative to repo root.
+	 * 
+	 * @return null if all files are checked out, empty if none
+	 */
+	public List<String> getSparseList() {
+		List<String> result = new ArrayList<String>();
+		if (objectsOnly) {
+			return result;
+		}
+		if (!TextUtils.isEmpty(sparse)) {
+			for (String path: sparse.split("\n")) {
+				path = path.trim();
+				while (path.startsWith("/") || path.startsWith("./")) {
+					path = path.substring(path.indexOf('/') + 1);
+				}
+				while (path.endsWith("/")) {
+					path = path.substring(0, path.length() - 1);
+				}
+				if ((path.length() > 0) && !result.contains(path)) result.add(path);
+			}
+		}
+		return result.isEmpty() ? null : result;
+	}
+	
+	/**
+	 * Working tree is partial or missing.
+	 * 
+	 * @return
+	 */
+	public boolean isSparse() {
+		return getSparseList() != null;
+	}
+
 }
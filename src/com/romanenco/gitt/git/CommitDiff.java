@@ -0,0 +1,436 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.io.NullOutputStream;
+
+import android.util.Log;
+
+import com.romanenco.gitt.GittApp;
+
+/**
+ * Files changed by a commit against its first parent, and their diffs.
+ * 
+ * Changed paths come from tree to tree diff, with renames. Unified
+ * diff of a file is computed only when asked for. Both are cached by
+ * commit pair. Large files are diffed as binary and long diffs are
+ * cut, so generated files do not stall the UI.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class CommitDiff {
+	
+	private static final String TAG = "CommitDiff";
+	
+	/**
+	 * Larger files are not diffed by lines.
+	 */
+	private static final int MAX_FILE = 256 * 1024;
+	
+	/**
+	 * Diff text of a file is cut at this size.
+	 */
+	private static final int MAX_DIFF = 128 * 1024;
+	
+	/**
+	 * Max change lists to keep.
+	 */
+	private static final int CACHE_CHANGES = 16;
+	
+	/**
+	 * Max chars of all cached diffs.
+	 */
+	private static final int CACHE_CHARS = 1024 * 1024;
+	
+	/**
+	 * Max size of diff files kept on disk.
+	 */
+	private static final long CACHE_FILES = 4 * 1024 * 1024;
+	
+	/**
+	 * Change lists by commit pair, access ordered.
+	 */
+	private static final Map<String, List<Change>> changeCache =
+			new LinkedHashMap<String, List<Change>>(CACHE_CHANGES, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<Change>> eldest) {
+			return size() > CACHE_CHANGES;
+		}
+	};
+	
+	/**
+	 * Diffs by commit pair and path, access ordered.
+	 */
+	private static final LinkedHashMap<String, String> diffCache =
+			new LinkedHashMap<String, String>(16, 0.75f, true);
+	private static int cachedChars;
+	
+	/**
+	 * Changed file.
+	 */
+	public static class Change {
+		
+		public final ChangeType type;
+		public final String oldPath;
+		public final String newPath;
+		final DiffEntry entry;
+		
+		Change(DiffEntry entry) {
+			this.entry = entry;
+			this.type = entry.getChangeType();
+			this.oldPath = entry.getOldPath();
+			this.newPath = entry.getNewPath();
+		}
+		
+		/**
+		 * Path in commit, or old path if file is deleted.
+		 * 
+		 * @return
+		 */
+		public String getPath() {
+			return (type == ChangeType.DELETE) ? oldPath : newPath;
+		}
+	}
+	
+	private final String localPath;
+	private final ObjectId parent; // null for root commit
+	private final ObjectId commit;
+	private final String key;
+	private final String author;
+	private final int time;
+	private final String message;
+	
+	private CommitDiff(String localPath, RevCommit commit) {
+		this.localPath = localPath;
+		this.commit = commit.copy();
+		this.parent = (commit.getParentCount() > 0) ? commit.getParent(0).copy() : null;
+		this.key = ((parent != null) ? parent.name() : ObjectId.zeroId().name())
+				+ ".." + commit.name();
+		PersonIdent ident = commit.getAuthorIdent();
+		this.author = (ident != null) ? ident.getName() : "";
+		this.time = commit.getCommitTime();
+		this.message = commit.getFullMessage();
+	}
+	
+	/**
+	 * Read commit.
+	 * 
+	 * @param localPath
+	 * @param id
+	 * @return
+	 * @throws GitError
+	 */
+	public static CommitDiff open(String localPath, String id) throws GitError {
+		Repository repo = null;
+		RevWalk walk = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			walk = new RevWalk(repo);
+			return new CommitDiff(localPath, walk.parseCommit(ObjectId.fromString(id)));
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (walk != null) {
+				walk.release();
+			}
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	public String getId() {
+		return commit.name();
+	}
+	
+	public String getAuthor() {
+		return author;
+	}
+	
+	/**
+	 * Commit time in seconds.
+	 * 
+	 * @return
+	 */
+	public int getTime() {
+		return time;
+	}
+	
+	public String getMessage() {
+		return message;
+	}
+	
+	/**
+	 * Files changed against first parent, all files for root commit.
+	 * 
+	 * @return
+	 * @throws GitError
+	 */
+	public List<Change> getChanges() throws GitError {
+		synchronized (changeCache) {
+			List<Change> cached = changeCache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		Repository repo = null;
+		ObjectReader reader = null;
+		DiffFormatter formatter = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			reader = repo.newObjectReader();
+			formatter = newFormatter(repo, NullOutputStream.INSTANCE);
+			List<Change> changes = new ArrayList<Change>();
+			for (DiffEntry entry: formatter.scan(treeOf(reader, parent), treeOf(reader, commit))) {
+				changes.add(new Change(entry));
+			}
+			changes = Collections.unmodifiableList(changes);
+			synchronized (changeCache) {
+				changeCache.put(key, changes);
+			}
+			return changes;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (formatter != null) {
+				formatter.release();
+			}
+			if (reader != null) {
+				reader.release();
+			}
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Unified diff of one changed file.
+	 * 
+	 * @param change
+	 * @return
+	 * @throws GitError
+	 */
+	public String getDiff(Change change) throws GitError {
+		String diffKey = key + ":" + change.oldPath + ":" + change.newPath;
+		synchronized (diffCache) {
+			String cached = diffCache.get(diffKey);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		Repository repo = null;
+		DiffFormatter formatter = null;
+		LimitedOutputStream out = new LimitedOutputStream(MAX_DIFF);
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			formatter = newFormatter(repo, out);
+			try {
+				formatter.format(change.entry);
+				formatter.flush();
+			} catch (LimitReachedException e) {
+				Log.d(TAG, "Diff cut: " + change.getPath());
+			}
+			String diff = RawParseUtils.decode(out.toByteArray());
+			if (out.isCut()) {
+				diff += "\n...\n";
+			}
+			store(diffKey, diff);
+			return diff;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (formatter != null) {
+				formatter.release();
+			}
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Write diff of a file to dir, for code view. Existing file is reused:
+	 * commit pair never changes. Least recently used files are deleted
+	 * over CACHE_FILES.
+	 * 
+	 * @param change
+	 * @param dir
+	 * @return
+	 * @throws GitError
+	 */
+	public File extractDiff(Change change, File dir) throws GitError {
+		String name = change.getPath();
+		name = name.substring(name.lastIndexOf('/') + 1);
+		File file = new File(dir, commit.name().substring(0, 10) + "_"
+				+ Integer.toHexString((change.oldPath + ":" + change.newPath).hashCode())
+				+ "_" + name + ".diff");
+		if (file.exists()) {
+			file.setLastModified(System.currentTimeMillis());
+			return file;
+		}
+		String diff = getDiff(change);
+		File tmp = null;
+		FileOutputStream out = null;
+		try {
+			dir.mkdirs();
+			tmp = File.createTempFile(commit.name(), ".tmp", dir);
+			out = new FileOutputStream(tmp);
+			out.write(Constants.encode(diff));
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Can't rename " + tmp);
+			}
+			GitHelper.trimCache(dir, CACHE_FILES, file);
+			return file;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			if (tmp != null) {
+				tmp.delete();
+			}
+			throw new GitError();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			}
+		}
+	}
+	
+	private static DiffFormatter newFormatter(Repository repo, OutputStream out) {
+		DiffFormatter formatter = new DiffFormatter(out);
+		formatter.setRepository(repo);
+		formatter.setDetectRenames(true);
+		formatter.setBinaryFileThreshold(MAX_FILE);
+		return formatter;
+	}
+	
+	private static AbstractTreeIterator treeOf(ObjectReader reader, ObjectId commit) throws IOException {
+		if (commit == null) {
+			return new EmptyTreeIterator();
+		}
+		RevWalk walk = new RevWalk(reader);
+		try {
+			return new CanonicalTreeParser(null, reader, walk.parseCommit(commit).getTree());
+		} finally {
+			walk.release();
+		}
+	}
+	
+	private static void store(String diffKey, String diff) {
+		synchronized (diffCache) {
+			if (diffCache.put(diffKey, diff) == null) {
+				cachedChars += diff.length();
+			}
+			Iterator<Map.Entry<String, String>> iter = diffCache.entrySet().iterator();
+			while ((cachedChars > CACHE_CHARS) && iter.hasNext()) {
+				Map.Entry<String, String> eldest = iter.next();
+				if (eldest.getKey().equals(diffKey)) break;
+				iter.remove();
+				cachedChars -= eldest.getValue().length();
+			}
+		}
+	}
+	
+	/**
+	 * Thrown when diff is too long: formatter stops.
+	 */
+	private static class LimitReachedException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+	}
+	
+	/**
+	 * Keeps up to limit bytes, then stops writer.
+	 */
+	private static class LimitedOutputStream extends OutputStream {
+		
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final int limit;
+		private boolean cut;
+		
+		LimitedOutputStream(int limit) {
+			this.limit = limit;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (buffer.size() >= limit) {
+				cut = true;
+				throw new LimitReachedException();
+			}
+			buffer.write(b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (buffer.size() + len > limit) {
+				buffer.write(b, off, limit - buffer.size());
+				cut = true;
+				throw new LimitReachedException();
+			}
+			buffer.write(b, off, len);
+		}
+		
+		byte[] toByteArray() {
+			return buffer.toByteArray();
+		}
+		
+		boolean isCut() {
+			return cut;
+		}
+	}
+
+}
@@ -0,0 +1,708 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.romanenco.gitt.GittApp;
+import com.romanenco.gitt.git.GitHelper.LogEntry;
+
+/**
+ * Commit headers of HEAD history, stored next to repo in .git folder.
+ * 
+ * Log pages, counts and date ranges are read from here, pack files
+ * are not touched. Built after clone; pull and checkout add only new
+ * commits if old tip is still in history, otherwise index is rebuilt.
+ * 
+ * Commits are inserted parents first, with generation number (1 for
+ * root, 1 + max of parents otherwise) and position, a sequence which
+ * new commits continue. Order is newest commit date first, as log
+ * shows when walking without index; on same date, later inserted
+ * (children) first. So commits added by pull take their place by date,
+ * even if older than indexed ones.
+ * Commits on first parent chain of tip are marked as mainline.
+ * 
+ * Messages and authors are in full text table for search.
+ * 
+ * Index which is not built for current HEAD must not be used for log:
+ * readers fall back to walk.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class CommitIndex {
+	
+	private static final String TAG = "CommitIndex";
+	
+	static final String FILE = "gitt-commits.db";
+	
+	/**
+	 * Format of tables. Index of other version is rebuilt.
+	 */
+	private static final int VERSION = 4;
+	
+	/**
+	 * Max matches ranked by search, most recent first.
+	 */
+	private static final int CANDIDATES = 500;
+	
+	/**
+	 * Commits per transaction when index is built.
+	 */
+	private static final int BATCH = 1000;
+	
+	private static final String COLUMNS = "sha, author, commit_time, subject, position";
+	private static final String ORDER = " ORDER BY commit_time DESC, position DESC";
+	
+	private final SQLiteDatabase db;
+	private final String tip;
+	
+	private CommitIndex(SQLiteDatabase db, String tip) {
+		this.db = db;
+		this.tip = tip;
+	}
+	
+	/**
+	 * Open index of a repo for reading.
+	 * 
+	 * @param repo
+	 * @return null if there is no usable index
+	 */
+	public static CommitIndex open(Repository repo) {
+		File file = fileOf(repo);
+		if (!file.exists()) {
+			return null;
+		}
+		SQLiteDatabase db = null;
+		try {
+			db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+			String tip = readTip(db);
+			if (tip != null) {
+				return new CommitIndex(db, tip);
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "Can't open index", e);
+		}
+		if (db != null) {
+			db.close();
+		}
+		return null;
+	}
+	
+	/**
+	 * Bring index to current HEAD: add new commits or rebuild.
+	 * 
+	 * @param localPath
+	 * @param pm for cancel, may be null
+	 * @throws GitError
+	 */
+	public static void update(String localPath, ProgressMonitor pm) throws GitError {
+		Repository repo = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			File file = fileOf(repo);
+			ObjectId head = repo.resolve(Constants.HEAD);
+			if (head == null) {
+				file.delete(); // empty repo
+				return;
+			}
+			String tip = null;
+			CommitIndex current = open(repo);
+			if (current != null) {
+				tip = current.tip;
+				current.close();
+			}
+			if (head.name().equals(tip)) {
+				return;
+			}
+			long start = System.currentTimeMillis();
+			if (pm != null) pm.beginTask("Indexing commits", ProgressMonitor.UNKNOWN);
+			if ((tip == null) || !extend(repo, file, ObjectId.fromString(tip), head, pm)) {
+				build(repo, file, head, pm);
+			}
+			Log.d(TAG, "Updated to " + head.name() + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		} catch (IOException e) {
+			GitHelper.checkCancelled(pm);
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} catch (SQLException e) {
+			Log.e(TAG, "SQL", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Index is built for this commit.
+	 * 
+	 * @param head
+	 * @return
+	 */
+	public boolean isCurrent(AnyObjectId head) {
+		return (head != null) && tip.equals(head.name());
+	}
+	
+	/**
+	 * Next page of log.
+	 * 
+	 * @param after last entry of previous page, null for first page
+	 * @param count
+	 * @param firstParent mainline only
+	 * @return
+	 * @throws GitError
+	 */
+	public List<LogEntry> page(LogEntry after, int count, boolean firstParent) throws GitError {
+		return page(after, count, firstParent, 0, 0);
+	}
+	
+	/**
+	 * Next page of log in commit time range.
+	 * 
+	 * @param after last entry of previous page, null for first page
+	 * @param count
+	 * @param firstParent mainline only
+	 * @param since seconds, inclusive; 0 for no limit
+	 * @param until seconds, exclusive; 0 for no limit
+	 * @return
+	 * @throws GitError
+	 */
+	public List<LogEntry> page(LogEntry after, int count, boolean firstParent,
+			long since, long until) throws GitError {
+		List<String> args = new ArrayList<String>();
+		StringBuilder where = where(args, firstParent, since, until);
+		if (after != null) {
+			String time = Integer.toString(after.getTime());
+			where.append(" AND (commit_time < ? OR (commit_time = ? AND position < ?))");
+			args.add(time);
+			args.add(time);
+			args.add(Long.toString(after.position));
+		}
+		List<LogEntry> page = new ArrayList<LogEntry>(count);
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT " + COLUMNS + " FROM commits WHERE " + where
+					+ ORDER + " LIMIT " + count, args.toArray(new String[args.size()]));
+			if (cursor.moveToFirst()) {
+				while (!cursor.isAfterLast()) {
+					page.add(new LogEntry(cursor.getString(0), cursor.getString(1),
+							cursor.getInt(2), cursor.getString(3), cursor.getLong(4)));
+					cursor.moveToNext();
+				}
+			}
+			return page;
+		} catch (SQLException e) {
+			Log.e(TAG, "Can't read page", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (cursor != null) cursor.close();
+		}
+	}
+	
+	/**
+	 * Number of commits in history.
+	 * 
+	 * @param firstParent mainline only
+	 * @return
+	 * @throws GitError
+	 */
+	public long count(boolean firstParent) throws GitError {
+		List<String> args = new ArrayList<String>();
+		return count(where(args, firstParent, 0, 0), args);
+	}
+	
+	/**
+	 * Number of commits in commit time range.
+	 * 
+	 * @param since seconds, inclusive; 0 for no limit
+	 * @param until seconds, exclusive; 0 for no limit
+	 * @return
+	 * @throws GitError
+	 */
+	public long count(long since, long until) throws GitError {
+		List<String> args = new ArrayList<String>();
+		return count(where(args, false, since, until), args);
+	}
+	
+	/**
+	 * Commits which match all words of message and author, in time
+	 * range. Words match by prefix. Hits are ranked by words found in
+	 * subject, then in whole message; most recent first otherwise.
+	 * Commit graph is not walked, so index need not be current.
+	 * 
+	 * @param query
+	 * @param limit max hits
+	 * @return
+	 * @throws GitError
+	 */
+	public List<LogEntry> search(Query query, int limit) throws GitError {
+		List<String> words = words(query.terms);
+		List<String> people = words(query.author);
+		if (words.isEmpty() && people.isEmpty()) {
+			return page(null, limit, query.firstParent, query.since, query.until);
+		}
+		StringBuilder match = new StringBuilder();
+		for (String word: words) {
+			match.append(word).append("* ");
+		}
+		for (String word: people) {
+			match.append("who:").append(word).append("* ");
+		}
+		List<String> args = new ArrayList<String>();
+		StringBuilder where = where(args, query.firstParent, query.since, query.until);
+		args.add(match.toString().trim());
+		List<Hit> hits = new ArrayList<Hit>();
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT " + COLUMNS + ", body FROM commits"
+					+ " JOIN messages ON messages.docid = commits.rowid WHERE " + where
+					+ " AND messages MATCH ?" + ORDER + " LIMIT " + CANDIDATES,
+					args.toArray(new String[args.size()]));
+			if (cursor.moveToFirst()) {
+				while (!cursor.isAfterLast()) {
+					LogEntry entry = new LogEntry(cursor.getString(0), cursor.getString(1),
+							cursor.getInt(2), cursor.getString(3), cursor.getLong(4));
+					hits.add(new Hit(entry, score(words, entry.getSummary(), cursor.getString(5))));
+					cursor.moveToNext();
+				}
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "Can't search", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (cursor != null) cursor.close();
+		}
+		Collections.sort(hits); // stable: recent first on same score
+		List<LogEntry> result = new ArrayList<LogEntry>(Math.min(limit, hits.size()));
+		for (Hit hit: hits) {
+			if (result.size() == limit) break;
+			result.add(hit.entry);
+		}
+		return result;
+	}
+	
+	public void close() {
+		db.close();
+	}
+	
+	/**
+	 * Lower case words of user input.
+	 */
+	private static List<String> words(String text) {
+		List<String> words = new ArrayList<String>();
+		if (text == null) {
+			return words;
+		}
+		for (String word: text.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() > 0) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+	
+	/**
+	 * Message starts with subject, so word in subject counts 3,
+	 * every other occurrence 1.
+	 */
+	private static int score(List<String> words, String subject, String body) {
+		String lowSubject = subject.toLowerCase(Locale.US);
+		String lowBody = body.toLowerCase(Locale.US);
+		int score = 0;
+		for (String word: words) {
+			if (lowSubject.contains(word)) {
+				score += 2;
+			}
+			for (int i = lowBody.indexOf(word); i >= 0; i = lowBody.indexOf(word, i + 1)) {
+				score++;
+			}
+		}
+		return score;
+	}
+	
+	/**
+	 * What to search for; empty fields are not used.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public static class Query {
+		public String terms; // words of message
+		public String author; // words of author name or email
+		public long since; // seconds, inclusive; 0 for no limit
+		public long until; // seconds, exclusive; 0 for no limit
+		public boolean firstParent;
+	}
+	
+	private static class Hit implements Comparable<Hit> {
+		
+		final LogEntry entry;
+		final int score;
+		
+		Hit(LogEntry entry, int score) {
+			this.entry = entry;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Hit another) {
+			return another.score - score;
+		}
+	}
+	
+	private long count(StringBuilder where, List<String> args) throws GitError {
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT COUNT(*) FROM commits WHERE " + where,
+					args.toArray(new String[args.size()]));
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} catch (SQLException e) {
+			Log.e(TAG, "Can't count", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (cursor != null) cursor.close();
+		}
+	}
+	
+	private static StringBuilder where(List<String> args, boolean firstParent,
+			long since, long until) {
+		StringBuilder where = new StringBuilder(firstParent ? "mainline = 1" : "1");
+		if (since > 0) {
+			where.append(" AND commit_time >= ?");
+			args.add(Long.toString(since));
+		}
+		if (until > 0) {
+			where.append(" AND commit_time < ?");
+			args.add(Long.toString(until));
+		}
+		return where;
+	}
+	
+	static File fileOf(Repository repo) {
+		return new File(repo.getDirectory(), FILE);
+	}
+	
+	/**
+	 * @param db
+	 * @return null if index is of other version or not complete
+	 */
+	private static String readTip(SQLiteDatabase db) {
+		if (db.getVersion() != VERSION) {
+			return null;
+		}
+		Cursor cursor = db.rawQuery("SELECT value FROM meta WHERE key = 'tip'", null);
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Write new index to temp file, then replace old one.
+	 * Readers of old index keep reading it till closed.
+	 */
+	private static void build(Repository repo, File file, ObjectId head,
+			ProgressMonitor pm) throws IOException, CancelledError {
+		File temp = new File(file.getPath() + ".tmp");
+		temp.delete();
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(temp, null);
+		GenerationWalk walk = new GenerationWalk(repo);
+		boolean done = false;
+		try {
+			db.execSQL("CREATE TABLE commits (sha TEXT PRIMARY KEY, parents TEXT,"
+					+ " author TEXT, email TEXT, author_time INTEGER, commit_time INTEGER,"
+					+ " subject TEXT, generation INTEGER, position INTEGER, mainline INTEGER)");
+			db.execSQL("CREATE INDEX commits_order ON commits (commit_time, position)");
+			db.execSQL("CREATE VIRTUAL TABLE messages USING fts3 (who, body)");
+			db.execSQL("CREATE TABLE meta (key TEXT PRIMARY KEY, value TEXT)");
+			db.setVersion(VERSION);
+			
+			RevCommit start = walk.parseCommit(head);
+			RevFlag mainline = walk.newFlag("mainline");
+			for (RevCommit c = start; ; c = c.getParent(0)) {
+				walk.parseHeaders(c);
+				c.add(mainline);
+				if (c.getParentCount() == 0) break;
+			}
+			walk.markStart(start);
+			db.beginTransaction();
+			try {
+				add(db, walk, 1, BATCH, mainline, pm);
+				setTip(db, head);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			done = true;
+		} finally {
+			walk.release();
+			db.close();
+			if (!done) {
+				temp.delete();
+			}
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Can't replace " + file);
+		}
+	}
+	
+	/**
+	 * Add commits from old tip to head, if old tip is in history of head.
+	 * 
+	 * @return false if index must be rebuilt
+	 */
+	private static boolean extend(Repository repo, File file, ObjectId tip, ObjectId head,
+			ProgressMonitor pm) throws IOException, CancelledError {
+		GenerationWalk walk = new GenerationWalk(repo);
+		SQLiteDatabase db = null;
+		try {
+			RevCommit start = walk.parseCommit(head);
+			RevCommit old;
+			try {
+				old = walk.parseCommit(tip);
+			} catch (MissingObjectException e) {
+				return false; // pruned after forced update
+			}
+			if (!walk.isMergedInto(old, start)) {
+				return false;
+			}
+			walk.reset();
+			db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+			
+			// first parent chain of new commits, and where it joins indexed ones
+			RevFlag mainline = walk.newFlag("mainline");
+			RevCommit join = null;
+			for (RevCommit c = start; ; c = c.getParent(0)) {
+				walk.parseHeaders(c);
+				if (generationOf(db, c) > 0) {
+					join = c;
+					break;
+				}
+				c.add(mainline);
+				if (c.getParentCount() == 0) break;
+			}
+			walk.markStart(start);
+			walk.markUninteresting(old);
+			db.beginTransaction();
+			try {
+				if ((join == null) || !join.equals(old)) {
+					// old mainline is a side branch now
+					db.execSQL("UPDATE commits SET mainline = 0 WHERE mainline = 1");
+					if (join != null) {
+						markMainline(db, join.name());
+					}
+				}
+				if (!add(db, walk, lastPosition(db) + 1, 0, mainline, pm)) {
+					return false;
+				}
+				setTip(db, head);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			return true;
+		} finally {
+			walk.release();
+			if (db != null) {
+				db.close();
+			}
+		}
+	}
+	
+	/**
+	 * Insert commits of a walk as it goes, parents first, with their
+	 * messages. Positions continue from first.
+	 * 
+	 * @param batch commits per transaction, 0 for caller's one transaction
+	 * @return false if parent of a new commit is not in walk or index
+	 */
+	private static boolean add(SQLiteDatabase db, GenerationWalk walk, long first, int batch,
+			RevFlag mainline, ProgressMonitor pm) throws IOException, CancelledError {
+		walk.setRetainBody(false);
+		walk.sort(RevSort.TOPO);
+		walk.sort(RevSort.REVERSE, true);
+		ObjectReader reader = walk.getObjectReader();
+		SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO commits"
+				+ " (sha, parents, author, email, author_time, commit_time, subject,"
+				+ " generation, position, mainline) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		SQLiteStatement text = db.compileStatement("INSERT INTO messages"
+				+ " (docid, who, body) VALUES (?, ?, ?)");
+		StringBuilder parents = new StringBuilder();
+		try {
+			long position = first;
+			RevCommit next;
+			while ((next = walk.next()) != null) {
+				GenerationCommit commit = (GenerationCommit) next;
+				int generation = 0;
+				parents.setLength(0);
+				for (RevCommit p: commit.getParents()) {
+					GenerationCommit parent = (GenerationCommit) p;
+					if (parent.generation == 0) {
+						parent.generation = generationOf(db, parent);
+						if (parent.generation == 0) {
+							Log.w(TAG, "Not indexed: " + parent.name());
+							return false;
+						}
+					}
+					generation = Math.max(generation, parent.generation);
+					if (parents.length() > 0) parents.append(' ');
+					parents.append(parent.name());
+				}
+				commit.generation = generation + 1;
+				
+				byte[] raw = reader.open(commit, Constants.OBJ_COMMIT).getCachedBytes();
+				PersonIdent author = LogEntry.author(raw);
+				insert.bindString(1, commit.name());
+				insert.bindString(2, parents.toString());
+				insert.bindString(3, (author != null) ? author.getName() : "");
+				insert.bindString(4, (author != null) ? author.getEmailAddress() : "");
+				insert.bindLong(5, (author != null) ? author.getWhen().getTime() / 1000 : 0);
+				insert.bindLong(6, commit.getCommitTime());
+				insert.bindString(7, LogEntry.summary(raw));
+				insert.bindLong(8, commit.generation);
+				insert.bindLong(9, position);
+				insert.bindLong(10, commit.has(mainline) ? 1 : 0);
+				long row = insert.executeInsert();
+				if (row != -1) {
+					text.bindLong(1, row);
+					text.bindString(2, (author != null)
+							? author.getName() + " " + author.getEmailAddress() : "");
+					text.bindString(3, LogEntry.message(raw));
+					text.executeInsert();
+				}
+				if ((batch > 0) && ((position - first + 1) % batch == 0)) {
+					db.setTransactionSuccessful();
+					db.endTransaction();
+					db.beginTransaction();
+				}
+				position++;
+				if (pm != null) pm.update(1);
+				GitHelper.checkCancelled(pm);
+			}
+			return true;
+		} finally {
+			insert.close();
+			text.close();
+		}
+	}
+	
+	/**
+	 * Follow first parents of an indexed commit.
+	 */
+	private static void markMainline(SQLiteDatabase db, String sha) {
+		while (sha != null) {
+			db.execSQL("UPDATE commits SET mainline = 1 WHERE sha = ?", new Object[] {sha});
+			Cursor cursor = db.rawQuery("SELECT parents FROM commits WHERE sha = ?",
+					new String[] {sha});
+			try {
+				sha = null;
+				if (cursor.moveToFirst() && (cursor.getString(0).length() > 0)) {
+					sha = cursor.getString(0).split(" ")[0];
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+	
+	/**
+	 * @return 0 if not indexed
+	 */
+	private static int generationOf(SQLiteDatabase db, AnyObjectId id) {
+		Cursor cursor = db.rawQuery("SELECT generation FROM commits WHERE sha = ?",
+				new String[] {id.name()});
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	private static long lastPosition(SQLiteDatabase db) {
+		Cursor cursor = db.rawQuery("SELECT MAX(position) FROM commits", null);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	private static void setTip(SQLiteDatabase db, ObjectId head) {
+		db.execSQL("INSERT OR REPLACE INTO meta (key, value) VALUES ('tip', ?)",
+				new Object[] {head.name()});
+	}
+	
+	/**
+	 * Walk which keeps generation number with every commit.
+	 */
+	private static class GenerationWalk extends RevWalk {
+		
+		GenerationWalk(Repository repo) {
+			super(repo);
+		}
+		
+		@Override
+		protected RevCommit createCommit(AnyObjectId id) {
+			return new GenerationCommit(id);
+		}
+	}
+	
+	private static class GenerationCommit extends RevCommit {
+		
+		int generation; // 0 until known
+		
+		GenerationCommit(AnyObjectId id) {
+			super(id);
+		}
+	}
+
+}
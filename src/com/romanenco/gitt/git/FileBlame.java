@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import android.util.Log;
+
+import com.romanenco.gitt.GittApp;
+import com.romanenco.gitt.git.GitHelper.LogEntry;
+
+/**
+ * Last commit of every line of a file.
+ * 
+ * Computed region by region: most recent commits come first, older
+ * ones fill remaining lines later. Lines are readable meanwhile.
+ * 
+ * Complete blames are cached by repo, start commit, path and blob.
+ * Same blob is not enough: content reverted to an older version
+ * has different history behind its lines.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class FileBlame {
+	
+	private static final String TAG = "FileBlame";
+	
+	/**
+	 * Max lines of all cached blames.
+	 */
+	private static final int CACHE_LINES = 50000;
+	
+	/**
+	 * Larger files are not blamed.
+	 */
+	private static final int MAX_SIZE = 1024 * 1024;
+	
+	/**
+	 * Blames by path and blob, access ordered.
+	 */
+	private static final LinkedHashMap<String, FileBlame> cache =
+			new LinkedHashMap<String, FileBlame>(16, 0.75f, true);
+	private static int cachedLines;
+	
+	/**
+	 * Called from computing thread after every region.
+	 */
+	public interface Listener {
+		
+		/**
+		 * @return false to stop
+		 */
+		boolean onRegion();
+	}
+	
+	private final String localPath;
+	private final String path;
+	private final ObjectId start;
+	private final String key;
+	private final RawText text;
+	private final LogEntry[] sources;
+	private boolean complete;
+	
+	private FileBlame(String localPath, String path, ObjectId start, String key, RawText text) {
+		this.localPath = localPath;
+		this.path = path;
+		this.start = start;
+		this.key = key;
+		this.text = text;
+		this.sources = new LogEntry[text.size()];
+	}
+	
+	/**
+	 * Blame of a file: cached one, or a new one to compute.
+	 * 
+	 * @param localPath
+	 * @param path relative to repo root
+	 * @param revision branch/tag, null for HEAD
+	 * @return
+	 * @throws GitError if file is not in revision
+	 */
+	public static FileBlame open(String localPath, String path, String revision) throws GitError {
+		Repository repo = null;
+		RevWalk walk = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			ObjectId start = repo.resolve(((revision != null) ? revision : Constants.HEAD) + "^{commit}");
+			if (start == null) {
+				throw new NoHeadError();
+			}
+			walk = new RevWalk(repo);
+			RevCommit commit = walk.parseCommit(start);
+			TreeWalk entry = TreeWalk.forPath(repo, path, commit.getTree());
+			if (entry == null) {
+				Log.e(TAG, "Not in revision: " + path);
+				throw new GitError();
+			}
+			ObjectId blob = entry.getObjectId(0);
+			entry.release();
+			String key = repo.getDirectory().getPath() + ":" + start.name()
+					+ ":" + path + ":" + blob.name();
+			synchronized (cache) {
+				FileBlame cached = cache.get(key);
+				if (cached != null) {
+					return cached;
+				}
+			}
+			byte[] content = repo.open(blob, Constants.OBJ_BLOB).getCachedBytes(MAX_SIZE);
+			if (RawText.isBinary(content)) {
+				Log.e(TAG, "Binary: " + path);
+				throw new GitError();
+			}
+			return new FileBlame(localPath, path, start, key, new RawText(content));
+		} catch (LargeObjectException e) {
+			Log.e(TAG, "Too large: " + path);
+			throw new GitError();
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (walk != null) {
+				walk.release();
+			}
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Assign commits to lines, newest first, until all lines are known
+	 * or listener stops it. Complete blame is cached.
+	 * Lines known before are kept, so it may be called again.
+	 * 
+	 * @param listener
+	 * @return true if complete
+	 * @throws GitError
+	 */
+	public boolean compute(Listener listener) throws GitError {
+		if (isComplete()) {
+			return true;
+		}
+		Repository repo = null;
+		BlameGenerator generator = null;
+		Map<ObjectId, LogEntry> commits = new HashMap<ObjectId, LogEntry>();
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			generator = new BlameGenerator(repo, path);
+			generator.setFollowFileRenames(true);
+			generator.push(null, start);
+			while (generator.next()) {
+				RevCommit commit = generator.getSourceCommit();
+				LogEntry source = commits.get(commit);
+				if (source == null) {
+					PersonIdent author = generator.getSourceAuthor();
+					source = new LogEntry(commit.name(), (author != null) ? author.getName() : "",
+							commit.getCommitTime(), commit.getShortMessage(), 0);
+					commits.put(commit.copy(), source);
+				}
+				synchronized (this) {
+					for (int line = generator.getResultStart(); line < generator.getResultEnd(); line++) {
+						sources[line] = source;
+					}
+				}
+				if ((listener != null) && !listener.onRegion()) {
+					return false;
+				}
+			}
+			synchronized (this) {
+				complete = true;
+			}
+			store(this);
+			return true;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (generator != null) {
+				generator.release();
+			}
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	public int getLineCount() {
+		return sources.length;
+	}
+	
+	/**
+	 * Text of a line, without line end.
+	 * 
+	 * @param line from 0
+	 * @return
+	 */
+	public String getLine(int line) {
+		return text.getString(line);
+	}
+	
+	/**
+	 * Commit which last changed a line.
+	 * 
+	 * @param line from 0
+	 * @return null if not known yet
+	 */
+	public synchronized LogEntry getSource(int line) {
+		return sources[line];
+	}
+	
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+	
+	private static void store(FileBlame blame) {
+		synchronized (cache) {
+			if (cache.put(blame.key, blame) == null) {
+				cachedLines += blame.getLineCount();
+			}
+			Iterator<FileBlame> iter = cache.values().iterator();
+			while ((cachedLines > CACHE_LINES) && iter.hasNext()) {
+				FileBlame eldest = iter.next();
+				if (eldest == blame) break;
+				iter.remove();
+				cachedLines -= eldest.getLineCount();
+			}
+		}
+	}
+
+}
@@ -20,35 +20,73 @@
 package com.romanenco.gitt.git;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TimeZone;
 
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.CheckoutCommand;
-import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.errors.DetachedHeadException;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
-import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.errors.NoRemoteRepositoryException;
 import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.GC;
+import org.eclipse.jgit.storage.file.GC.RepoStatistics;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.RawParseUtils;
 
 import android.util.Log;
 
+import com.jcraft.jsch.JSchException;
 import com.romanenco.gitt.GittApp;
 
 /**
@@ -60,55 +98,164 @@ import com.romanenco.gitt.GittApp;
 public class GitHelper {
 	
 	private static final String TAG = "GitHelper";
+	
+	private static final String REMOTE = Constants.DEFAULT_REMOTE_NAME;
+	
+	/**
+	 * Fetch attempts on connection errors, with backoff between them.
+	 */
+	private static final int FETCH_ATTEMPTS = 4;
+	private static final long FETCH_BACKOFF = 2000; // ms, doubled each time
+	
+	/**
+	 * Network timeout in seconds
+	 */
+	private static int timeout = 30;
+	
+	/**
+	 * Pack settings for gc.
+	 */
+	private static final int GC_THREADS = 1;
+	private static final long GC_WINDOW_MEMORY = 8 * 1024 * 1024;
+	private static final long GC_DELTA_CACHE = 8 * 1024 * 1024;
+	private static final int GC_BIG_FILE = 8 * 1024 * 1024; // stored whole, no delta
+	
+	/**
+	 * Max size of extracted blobs kept on disk.
+	 */
+	private static final long BLOB_CACHE = 32 * 1024 * 1024;
+	
+	/**
+	 * Temp files left longer than this by killed writers are deleted.
+	 */
+	private static final long STALE_TEMP = 60 * 60 * 1000;
+	
+	public static void setTimeout(int seconds) {
+		timeout = seconds;
+	}
 
 	/**
 	 * Clone remote HTTP/S repo to local file system.
 	 * 
+	 * Only refs from the list are fetched and recorded in remote
+	 * config, so next pulls fetch the same set:
+	 * null - all branches and tags;
+	 * empty - remote's default branch;
+	 * otherwise - full names of branches and tags.
+	 * 
+	 * Clone is resumable: if folder already has a repo for the same url
+	 * (left by failed or killed clone), objects and refs fetched so far
+	 * are kept and only missing ones are fetched. Refs are fetched one
+	 * by one (all branches too), so every finished ref is a checkpoint.
+	 * 
 	 * @param url
 	 * @param localPath
 	 * @param user
 	 * @param password
+	 * @param refs
+	 * @param sparse folders to check out, null for all, empty for none
+	 * @param monitor
+	 * @return refs actually cloned (for empty list - default branch name)
+	 * and remote state as of clone
 	 * @throws GitError
 	 */
-	public static void clone(String url, String localPath, String user,
-			String password, ProgressMonitor monitor) throws GitError {
+	public static Cloned clone(String url, String localPath, String user,
+			String password, List<String> refs, List<String> sparse,
+			ProgressMonitor monitor) throws GitError {
 		Log.d(TAG, "Cloning: " + url);
-		CloneCommand clone = Git.cloneRepository();
-		clone.setTimeout(30); // set time out for bad servers
-		clone.setURI(url);
-		clone.setDirectory(new File(localPath));
+		UsernamePasswordCredentialsProvider access = null;
 		if ((user != null) && (password != null)) {
-			UsernamePasswordCredentialsProvider access = new UsernamePasswordCredentialsProvider(
-					user, password);
-			clone.setCredentialsProvider(access);
-		}
-		if (monitor != null) {
-			clone.setProgressMonitor(monitor);
+			access = new UsernamePasswordCredentialsProvider(user, password);
 		}
 		
+		Repository repo = null;
 		try {
-			FileUtils.deleteDirectory(new File(localPath));
-			clone.call();
-			return;
+			if ((refs != null) && refs.isEmpty()) {
+				String branch = defaultBranch(listRemoteRefs(null, url, access));
+				if (branch == null) {
+					throw new NoHeadError();
+				}
+				refs = new ArrayList<String>();
+				refs.add(branch);
+			}
+			
+			RepoPool.getInstance().invalidate(localPath);
+			repo = openForResume(localPath, url);
+			if (repo == null) {
+				FileUtils.deleteDirectory(new File(localPath));
+				repo = Git.init().setDirectory(new File(localPath)).call().getRepository();
+			} else {
+				Log.d(TAG, "Resuming clone: " + localPath);
+			}
+			
+			RemoteConfig remote = new RemoteConfig(repo.getConfig(), REMOTE);
+			remote.setFetchRefSpecs(new ArrayList<RefSpec>());
+			if (remote.getURIs().isEmpty()) {
+				remote.addURI(new URIish(url));
+			}
+			if (refs == null) {
+				remote.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "*:"
+						+ Constants.R_REMOTES + REMOTE + "/*"));
+				remote.setTagOpt(TagOpt.AUTO_FOLLOW);
+			} else {
+				for (String ref: refs) {
+					remote.addFetchRefSpec(refSpecFor(ref));
+				}
+				remote.setTagOpt(TagOpt.NO_TAGS);
+			}
+			remote.update(repo.getConfig());
+			repo.getConfig().save();
+			
+			List<RefSpec> steps = remote.getFetchRefSpecs();
+			if (refs == null) {
+				steps = branchSteps(listRemoteRefs(null, url, access), steps);
+			}
+			
+			Git git = new Git(repo);
+			FetchResult result = null;
+			for (int i = 0; i < steps.size(); i++) {
+				FetchCommand fetch = git.fetch();
+				fetch.setRemote(REMOTE);
+				fetch.setRefSpecs(steps.get(i));
+				fetch.setCredentialsProvider(access);
+				if ((refs == null) && (i == steps.size() - 1)) {
+					fetch.setTagOpt(TagOpt.FETCH_TAGS);
+				}
+				if (monitor != null) {
+					fetch.setProgressMonitor(monitor);
+				}
+				result = fetchWithRetry(fetch, monitor);
+			}
+			
+			checkCancelled(monitor);
+			checkoutAfterClone(git, result, refs, sparse);
+			Cloned cloned = new Cloned();
+			cloned.refs = refs;
+			cloned.remoteState = remoteState(result.getAdvertisedRefs(), remote);
+			return cloned;
 		} catch (InvalidRemoteException e) {
 			Log.e(TAG, "InvalidRemote", e);
 			GittApp.saveErrorTrace(e);
 			throw new NotGitRepoError();
 		} catch (TransportException e) {
-			String trace = GittApp.saveErrorTrace(e);
-			if (trace.indexOf("not authorized") != -1) {
-				Log.e(TAG, "Auth", e);
-				throw new AuthFailError();
-			}
-			Log.e(TAG, "Transport", e);
-			throw new ConnectionError();
+			checkCancelled(monitor);
+			GittApp.saveErrorTrace(e);
+			GitError error = transportError(e);
+			Log.e(TAG, "Transport: " + error.getClass().getSimpleName(), e);
+			throw error;
+		} catch (URISyntaxException e) {
+			Log.e(TAG, "URI", e);
+			GittApp.saveErrorTrace(e);
+			throw new NotGitRepoError();
 		} catch (GitAPIException e) {
+			checkCancelled(monitor);
 			Log.e(TAG, "GitApi", e);
 			GittApp.saveErrorTrace(e);
 		} catch (IOException e) {
 			Log.e(TAG, "IO", e);
 			GittApp.saveErrorTrace(e);
 		} catch (JGitInternalException e) {
+			checkCancelled(monitor);
 			Log.e(TAG, "GitInternal", e);
 			GittApp.saveErrorTrace(e);
 			if (e.getCause() instanceof NotSupportedException) {
@@ -116,21 +263,775 @@ public class GitHelper {
 			} else {
 				throw new GitError();
 			}
+		} finally {
+			if (repo != null) {
+				repo.close();
+			}
 		}
 		throw new GitError();
 	}
 	
 	/**
-	 * Folder size in bytes.
+	 * Fetch steps for cloning all branches: one per branch, default
+	 * branch first, then configured specs for tags and branches created
+	 * meanwhile. Jgit drops a partly received pack, so a single wildcard
+	 * fetch would leave nothing to resume.
+	 * 
+	 * @param advertised
+	 * @param configured
+	 * @return
+	 */
+	private static List<RefSpec> branchSteps(Collection<Ref> advertised,
+			List<RefSpec> configured) {
+		List<String> branches = new ArrayList<String>();
+		for (Ref ref: advertised) {
+			if (ref.getName().startsWith(Constants.R_HEADS)) {
+				branches.add(ref.getName());
+			}
+		}
+		Collections.sort(branches);
+		String main = defaultBranch(advertised);
+		if (main != null) {
+			branches.remove(main);
+			branches.add(0, main);
+		}
+		List<RefSpec> steps = new ArrayList<RefSpec>();
+		for (String branch: branches) {
+			steps.add(refSpecFor(branch));
+		}
+		steps.addAll(configured);
+		return steps;
+	}
+	
+	/**
+	 * Open repo left by previous clone attempt.
+	 * 
+	 * @param localPath
+	 * @param url
+	 * @return null if there is nothing to resume
+	 */
+	private static Repository openForResume(String localPath, String url) {
+		File gitDir = new File(localPath, Constants.DOT_GIT);
+		if (!gitDir.isDirectory()) {
+			return null;
+		}
+		Repository repo = null;
+		try {
+			repo = FileKey.exact(gitDir, FS.DETECTED).open(true);
+			RemoteConfig remote = new RemoteConfig(repo.getConfig(), REMOTE);
+			if (remote.getURIs().contains(new URIish(url))) {
+				return repo;
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Can't resume", e);
+		} catch (URISyntaxException e) {
+			Log.w(TAG, "Can't resume", e);
+		}
+		if (repo != null) {
+			repo.close();
+		}
+		return null;
+	}
+	
+	/**
+	 * Fetch, retrying with backoff on connection errors.
+	 * Every retry is incremental: objects from completed packs are reused.
+	 * 
+	 * @param fetch
+	 * @return
+	 * @throws GitAPIException
+	 */
+	private static FetchResult fetchWithRetry(FetchCommand fetch,
+			ProgressMonitor monitor) throws GitAPIException, CancelledError {
+		fetch.setTimeout(timeout);
+		long backoff = FETCH_BACKOFF;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return fetch.call();
+			} catch (TransportException e) {
+				checkCancelled(monitor);
+				if ((attempt == FETCH_ATTEMPTS) || isAuthError(e)) {
+					throw e;
+				}
+				Log.w(TAG, "Fetch failed, attempt " + attempt, e);
+			}
+			long wakeUp = System.currentTimeMillis() + backoff;
+			while (System.currentTimeMillis() < wakeUp) {
+				checkCancelled(monitor);
+				try {
+					Thread.sleep(250);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CancelledError();
+				}
+			}
+			backoff *= 2;
+		}
+	}
+	
+	/**
+	 * Jgit reports cancellation in different ways,
+	 * so check monitor directly.
+	 * 
+	 * @param monitor
+	 * @throws CancelledError
+	 */
+	static void checkCancelled(ProgressMonitor monitor) throws CancelledError {
+		if ((monitor != null) && monitor.isCancelled()) {
+			Log.d(TAG, "Cancelled");
+			throw new CancelledError();
+		}
+	}
+	
+	/**
+	 * Error for failed transport, by exception types in cause chain.
+	 * 
+	 * @param e
+	 * @return
+	 */
+	private static GitError transportError(Throwable e) {
+		if (isAuthError(e)) {
+			return new AuthFailError();
+		}
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof NoRemoteRepositoryException) {
+				return new NotGitRepoError();
+			}
+		}
+		return new ConnectionError();
+	}
+	
+	/**
+	 * jgit 2.3 has no exception type for auth failure: http transport
+	 * reports it as TransportException with notAuthorized message,
+	 * ssh as JSchException from jsch.
+	 * 
+	 * @param e
+	 * @return
+	 */
+	private static boolean isAuthError(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			String message = cause.getMessage();
+			if (message == null) {
+				continue;
+			}
+			if ((cause instanceof org.eclipse.jgit.errors.TransportException)
+					&& message.endsWith(JGitText.get().notAuthorized)) {
+				return true;
+			}
+			if ((cause instanceof JSchException) && message.startsWith("Auth ")) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Make local branch for first cloned branch and check it out.
+	 * If only tags were cloned, checkout first one (detached head).
+	 * 
+	 * @param git
+	 * @param fetched
+	 * @param refs null for all
+	 * @throws GitAPIException
+	 */
+	private static void checkoutAfterClone(Git git, FetchResult fetched,
+			List<String> refs, List<String> sparse) throws GitAPIException, IOException {
+		String target = null;
+		if (refs == null) {
+			target = defaultBranch(fetched.getAdvertisedRefs());
+		} else {
+			for (String ref: refs) {
+				if (ref.startsWith(Constants.R_HEADS)) {
+					target = ref;
+					break;
+				}
+			}
+			if ((target == null) && !refs.isEmpty()) {
+				if (sparse == null) {
+					git.checkout().setName(refs.get(0)).call();
+				} else {
+					SparseCheckout.checkout(git.getRepository(), refs.get(0), sparse);
+				}
+				return;
+			}
+		}
+		if (target == null) {
+			return; // empty repo
+		}
+		String branch = target.substring(Constants.R_HEADS.length());
+		boolean create = git.getRepository().getRef(target) == null;
+		if (sparse != null) {
+			if (create) {
+				git.branchCreate().setName(branch)
+					.setStartPoint(REMOTE + "/" + branch)
+					.setUpstreamMode(SetupUpstreamMode.TRACK).call();
+			}
+			SparseCheckout.checkout(git.getRepository(), target, sparse);
+			return;
+		}
+		CheckoutCommand co = git.checkout();
+		co.setName(branch);
+		if (create) {
+			co.setCreateBranch(true);
+			co.setStartPoint(REMOTE + "/" + branch);
+			co.setUpstreamMode(SetupUpstreamMode.TRACK);
+		}
+		co.call();
+	}
+	
+	private static RefSpec refSpecFor(String ref) {
+		if (ref.startsWith(Constants.R_HEADS)) {
+			String branch = ref.substring(Constants.R_HEADS.length());
+			return new RefSpec("+" + ref + ":" + Constants.R_REMOTES + REMOTE + "/" + branch);
+		}
+		return new RefSpec("+" + ref + ":" + ref);
+	}
+	
+	/**
+	 * Branch HEAD points to; master if it's ambiguous.
+	 * 
+	 * @param advertised
+	 * @return full branch name or null
+	 */
+	private static String defaultBranch(Collection<Ref> advertised) {
+		ObjectId head = null;
+		for (Ref ref: advertised) {
+			if (Constants.HEAD.equals(ref.getName())) {
+				head = ref.getObjectId();
+				break;
+			}
+		}
+		String result = null;
+		for (Ref ref: advertised) {
+			if (!ref.getName().startsWith(Constants.R_HEADS)) continue;
+			if ((head == null) || head.equals(ref.getObjectId())) {
+				if ((result == null) || ref.getName().equals(Constants.R_HEADS + Constants.MASTER)) {
+					result = ref.getName();
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Read refs advertised by remote repo, without cloning it.
+	 * Only branches and tags are returned.
+	 * 
+	 * @param url
+	 * @param user
+	 * @param password
+	 * @return full ref names
+	 * @throws GitError
+	 */
+	public static List<String> listRemoteRefs(String url, String user, String password) throws GitError {
+		UsernamePasswordCredentialsProvider access = null;
+		if ((user != null) && (password != null)) {
+			access = new UsernamePasswordCredentialsProvider(user, password);
+		}
+		List<String> result = new ArrayList<String>();
+		for (Ref ref: listRemoteRefs(null, url, access)) {
+			String name = ref.getName();
+			if (name.startsWith(Constants.R_HEADS) || 
+					(name.startsWith(Constants.R_TAGS) && !name.endsWith("^{}"))) {
+				result.add(name);
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Refs advertised by remote. Single request, no objects are transferred.
+	 * 
+	 * @param repo local repo to take origin from, or null to use url
+	 * @param url
+	 * @param access
+	 * @return
+	 * @throws GitError
+	 */
+	private static Collection<Ref> listRemoteRefs(Repository repo, String url,
+			UsernamePasswordCredentialsProvider access) throws GitError {
+		Transport transport = null;
+		FetchConnection connection = null;
+		try {
+			if (repo != null) {
+				transport = Transport.open(repo, REMOTE);
+			} else {
+				transport = Transport.open(new URIish(url));
+			}
+			transport.setTimeout(timeout);
+			transport.setCredentialsProvider(access);
+			connection = transport.openFetch();
+			return connection.getRefs();
+		} catch (URISyntaxException e) {
+			Log.e(TAG, "URI", e);
+			GittApp.saveErrorTrace(e);
+			throw new NotGitRepoError();
+		} catch (NotSupportedException e) {
+			Log.e(TAG, "NotSupported", e);
+			GittApp.saveErrorTrace(e);
+			throw new ConnectionError();
+		} catch (org.eclipse.jgit.errors.TransportException e) {
+			GittApp.saveErrorTrace(e);
+			GitError error = transportError(e);
+			Log.e(TAG, "Transport: " + error.getClass().getSimpleName(), e);
+			throw error;
+		} finally {
+			if (connection != null) connection.close();
+			if (transport != null) transport.close();
+		}
+	}
+	
+	/**
+	 * Fingerprint of remote refs this repo fetches on pull.
+	 * 
+	 * Only ref advertisement is read, so it is cheap compared to pull.
+	 * Same value as after last pull means there is nothing new to fetch.
+	 * 
+	 * @param localPath
+	 * @param user
+	 * @param password
+	 * @return
+	 * @throws GitError
+	 */
+	public static String readRemoteState(String localPath, String user, String password) throws GitError {
+		UsernamePasswordCredentialsProvider access = null;
+		if ((user != null) && (password != null)) {
+			access = new UsernamePasswordCredentialsProvider(user, password);
+		}
+		Repository repo = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			RemoteConfig remote = new RemoteConfig(repo.getConfig(), REMOTE);
+			return remoteState(listRemoteRefs(repo, null, access), remote);
+		} catch (URISyntaxException e) {
+			Log.e(TAG, "URI", e);
+			GittApp.saveErrorTrace(e);
+			throw new NotGitRepoError();
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Digest of advertised refs matching remote's fetch specs.
+	 * 
+	 * @param advertised
+	 * @param remote
+	 * @return
+	 */
+	private static String remoteState(Collection<Ref> advertised, RemoteConfig remote) {
+		boolean tags = remote.getTagOpt() != TagOpt.NO_TAGS;
+		List<String> state = new ArrayList<String>();
+		for (Ref ref: advertised) {
+			if (isFetched(ref, remote.getFetchRefSpecs(), tags)) {
+				state.add(ref.getName() + " " + ref.getObjectId().name());
+			}
+		}
+		Collections.sort(state);
+		MessageDigest digest = Constants.newMessageDigest();
+		for (String line: state) {
+			digest.update(Constants.encode(line));
+			digest.update((byte)'\n');
+		}
+		return ObjectId.fromRaw(digest.digest()).name();
+	}
+	
+	private static boolean isFetched(Ref ref, List<RefSpec> specs, boolean tags) {
+		if (ref.getObjectId() == null) {
+			return false;
+		}
+		if (tags && ref.getName().startsWith(Constants.R_TAGS)) {
+			return true;
+		}
+		for (RefSpec spec: specs) {
+			if (spec.matchSource(ref)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Current branch is at the commit of its remote tracking branch,
+	 * i.e. nothing is left to merge from what was fetched before.
+	 * 
+	 * @param localPath
+	 * @return false for detached head or branch without upstream
+	 */
+	public static boolean isMergedWithUpstream(String localPath) {
+		Repository repo = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			String branch = repo.getFullBranch();
+			if ((branch == null) || !branch.startsWith(Constants.R_HEADS)) {
+				return false;
+			}
+			String tracking = new BranchConfig(repo.getConfig(),
+					Repository.shortenRefName(branch)).getRemoteTrackingBranch();
+			if (tracking == null) {
+				return false;
+			}
+			ObjectId head = repo.resolve(Constants.HEAD);
+			return (head != null) && head.equals(repo.resolve(tracking));
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			return false;
+		} finally {
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Storage used by repo, in bytes.
+	 * Computed from git metadata, without walking working tree.
 	 * 
 	 * @param localPath
 	 * @return
+	 * @throws GitError
+	 */
+	public static StorageSize getStorageSize(String localPath) throws GitError {
+		StorageSize size = new StorageSize();
+		Repository repo = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			readObjectsSize(repo, size);
+			DirCache index = repo.readDirCache();
+			for (int i = 0; i < index.getEntryCount(); i++) {
+				size.worktree += index.getEntry(i).getLength();
+			}
+			return size;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Update packs and loose objects size only, e.g. after fetch.
+	 * Only object folders are listed.
+	 * 
+	 * @param localPath
+	 * @param size
+	 * @throws GitError
+	 */
+	public static void updateObjectsSize(String localPath, StorageSize size) throws GitError {
+		Repository repo = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			readObjectsSize(repo, size);
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	private static void readObjectsSize(Repository repo, StorageSize size) throws IOException {
+		RepoStatistics stats = new GC((FileRepository)repo).getStatistics();
+		size.packs = stats.sizeOfPackedObjects;
+		size.loose = stats.sizeOfLooseObjects;
+		size.packFiles = stats.numberOfPackFiles;
+		size.looseObjects = stats.numberOfLooseObjects;
+	}
+	
+	/**
+	 * Pack loose objects and all packs into one, prune unreachable
+	 * loose objects and pack refs.
+	 * 
+	 * Packing is tuned for a device: single thread and small delta
+	 * memory; objects are reused from existing packs when possible.
+	 * 
+	 * @param localPath
+	 * @param pm
+	 * @throws GitError
+	 */
+	public static void gc(String localPath, ProgressMonitor pm) throws GitError {
+		Repository repo = null;
+		try {
+			// own instance: tuning must not reach pooled repo, whose
+			// config is saved by other commands
+			repo = FileKey.lenient(new File(localPath), FS.DETECTED).open(true);
+			Config config = repo.getConfig();
+			config.setInt("pack", null, "threads", GC_THREADS);
+			config.setLong("pack", null, "windowmemory", GC_WINDOW_MEMORY);
+			config.setLong("pack", null, "deltacachesize", GC_DELTA_CACHE);
+			config.setInt("pack", null, "bigfilethreshold", GC_BIG_FILE);
+			GC gc = new GC((FileRepository)repo);
+			gc.setProgressMonitor(pm);
+			gc.gc();
+			checkCancelled(pm);
+		} catch (IOException e) {
+			checkCancelled(pm);
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} catch (ParseException e) {
+			Log.e(TAG, "Parse", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (repo != null) {
+				repo.close();
+			}
+			// pooled instance holds removed packs open
+			RepoPool.getInstance().invalidate(localPath);
+		}
+	}
+	
+	/**
+	 * How working tree size changes when moving from one commit to other.
+	 * Only paths which differ are visited.
+	 * 
+	 * @param localPath
+	 * @param from null for empty tree
+	 * @param to null for empty tree
+	 * @return delta in bytes
+	 * @throws GitError
+	 */
+	public static long worktreeSizeDelta(String localPath, ObjectId from, ObjectId to) throws GitError {
+		if ((from != null) && from.equals(to)) {
+			return 0;
+		}
+		Repository repo = null;
+		ObjectReader reader = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			reader = repo.newObjectReader();
+			RevWalk rw = new RevWalk(reader);
+			TreeWalk tw = new TreeWalk(reader);
+			tw.setRecursive(true);
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			ObjectId[] commits = {from, to};
+			for (ObjectId commit: commits) {
+				if (commit == null) {
+					tw.addTree(new EmptyTreeIterator());
+				} else {
+					tw.addTree(rw.parseCommit(commit).getTree());
+				}
+			}
+			long delta = 0;
+			while (tw.next()) {
+				if (isFile(tw.getRawMode(0))) {
+					delta -= reader.getObjectSize(tw.getObjectId(0), Constants.OBJ_BLOB);
+				}
+				if (isFile(tw.getRawMode(1))) {
+					delta += reader.getObjectSize(tw.getObjectId(1), Constants.OBJ_BLOB);
+				}
+			}
+			return delta;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (reader != null) reader.release();
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	private static boolean isFile(int mode) {
+		return (mode & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+	}
+	
+	/**
+	 * Commit HEAD points to.
+	 * 
+	 * @param localPath
+	 * @return null if there is no HEAD
 	 */
-	public static long getRepoSize(String localPath) {
-		return FileUtils.sizeOfDirectory(new File(localPath));
+	public static ObjectId headCommit(String localPath) {
+		Repository repo = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			return repo.resolve(Constants.HEAD);
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			return null;
+		} finally {
+			RepoPool.getInstance().release(repo);
+		}
 	}
 	
 	
+	/**
+	 * List one folder of a commit's tree, read from object database.
+	 * Working tree is not used, so any revision can be browsed.
+	 * 
+	 * @param localPath
+	 * @param revision branch, tag or commit id
+	 * @param folder relative to repo root, "." or "./a/b"
+	 * @return entries in git order
+	 * @throws GitError
+	 */
+	public static List<TreeEntry> listTree(String localPath, String revision, String folder) throws GitError {
+		List<TreeEntry> result = new ArrayList<TreeEntry>();
+		Repository repo = null;
+		ObjectReader reader = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			ObjectId tree = repo.resolve(revision + "^{tree}");
+			if (tree == null) {
+				throw new GitError();
+			}
+			reader = repo.newObjectReader();
+			TreeWalk tw;
+			String path = treePath(folder);
+			if (path.length() == 0) {
+				tw = new TreeWalk(reader);
+				tw.addTree(tree);
+			} else {
+				TreeWalk parent = TreeWalk.forPath(reader, path, tree);
+				if ((parent == null) || !parent.isSubtree()) {
+					throw new GitError();
+				}
+				tw = new TreeWalk(reader);
+				tw.addTree(parent.getObjectId(0));
+			}
+			while (tw.next()) {
+				TreeEntry entry = new TreeEntry();
+				entry.name = tw.getNameString();
+				entry.id = tw.getObjectId(0).name();
+				entry.folder = tw.isSubtree();
+				if (isFile(tw.getRawMode(0))) {
+					entry.size = reader.getObjectSize(tw.getObjectId(0), Constants.OBJ_BLOB);
+				}
+				result.add(entry);
+			}
+			return result;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			if (reader != null) reader.release();
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	private static String treePath(String folder) {
+		if (folder.equals(".")) {
+			return "";
+		}
+		if (folder.startsWith("./")) {
+			return folder.substring(2);
+		}
+		return folder;
+	}
+	
+	/**
+	 * Write blob content to a file, streamed: big blobs are not loaded
+	 * to memory. Blobs are immutable, so existing file is reused.
+	 * Least recently used files are deleted over BLOB_CACHE.
+	 * 
+	 * @param localPath
+	 * @param blobId
+	 * @param name file name, to keep extension
+	 * @param dir where to put the file
+	 * @return
+	 * @throws GitError
+	 */
+	public static File extractBlob(String localPath, String blobId, String name, File dir) throws GitError {
+		File file = new File(dir, blobId + "_" + name);
+		if (file.exists()) {
+			file.setLastModified(System.currentTimeMillis());
+			return file;
+		}
+		Repository repo = null;
+		File tmp = null;
+		FileOutputStream out = null;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			dir.mkdirs();
+			tmp = File.createTempFile(blobId, ".tmp", dir); // same blob may be extracted twice at once
+			out = new FileOutputStream(tmp);
+			repo.open(ObjectId.fromString(blobId), Constants.OBJ_BLOB).copyTo(out);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Can't rename " + tmp);
+			}
+			trimCache(dir, BLOB_CACHE, file);
+			return file;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			if (tmp != null) {
+				tmp.delete();
+			}
+			throw new GitError();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			}
+			RepoPool.getInstance().release(repo);
+		}
+	}
+	
+	/**
+	 * Delete least recently used files of a cache folder till it fits
+	 * the limit. Temp files are deleted only if stale: they are being
+	 * written otherwise.
+	 * 
+	 * @param dir
+	 * @param limit bytes
+	 * @param keep file just written, not deleted
+	 */
+	static void trimCache(File dir, long limit, File keep) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<File> cached = new ArrayList<File>();
+		long size = 0;
+		for (File file: files) {
+			if (file.getName().endsWith(".tmp")) {
+				if (now - file.lastModified() > STALE_TEMP) {
+					file.delete();
+				}
+			} else if (!file.equals(keep)) {
+				cached.add(file);
+				size += file.length();
+			}
+		}
+		size += keep.length();
+		if (size <= limit) {
+			return;
+		}
+		Collections.sort(cached, new Comparator<File>() {
+
+			@Override
+			public int compare(File lhs, File rhs) {
+				long left = lhs.lastModified();
+				long right = rhs.lastModified();
+				return (left < right) ? -1 : ((left == right) ? 0 : 1);
+			}
+		});
+		for (File file: cached) {
+			if (size <= limit) break;
+			long length = file.length();
+			if (file.delete()) {
+				size -= length;
+			}
+		}
+		Log.d(TAG, "Cache trimmed: " + dir + ", " + size + " bytes left");
+	}
+	
 	/**
 	 * Current branch/tag name.
 	 * 
@@ -138,14 +1039,15 @@ public class GitHelper {
 	 * @return
 	 */
 	public static String currentBranchName(String localPath) {
+		Repository repo = null;
 		try {
-			Git git = Git.open(new File(localPath));
+			repo = RepoPool.getInstance().acquire(localPath);
 		
-			String name = git.getRepository().getBranch();
+			String name = repo.getBranch();
 			
 			if (name.length() == 40) {
 				//detached head processing
-				Map<String, Ref> refs = git.add().getRepository().getAllRefs();
+				Map<String, Ref> refs = repo.getAllRefs();
 				Iterator<Entry<String, Ref>> iter = refs.entrySet().iterator();
 				while (iter.hasNext()) {
 					Entry<String, Ref> entry = iter.next();
@@ -160,6 +1062,8 @@ public class GitHelper {
 			return nameReFormat(name);
 		} catch (IOException e) {
 			GittApp.saveErrorTrace(e);
+		} finally {
+			RepoPool.getInstance().release(repo);
 		}
 		return null;
 	}
@@ -173,10 +1077,11 @@ public class GitHelper {
 	 */
 	public static void readBranchesAndTags(List<String> refs, String localPath) {
 		if (refs == null) return;
+		Repository repo = null;
 		try {
-			Git git = Git.open(new File(localPath));
+			repo = RepoPool.getInstance().acquire(localPath);
 			
-			Map<String, Ref> mm = git.getRepository().getAllRefs();
+			Map<String, Ref> mm = repo.getAllRefs();
 			for (String name: mm.keySet()) {
 				if (name.equals("HEAD")||name.startsWith("refs/heads/")) continue;
 				refs.add(name);
@@ -184,6 +1089,8 @@ public class GitHelper {
 
 		} catch (Exception e) {
 			GittApp.saveErrorTrace(e);
+		} finally {
+			RepoPool.getInstance().release(repo);
 		}
 	}
 	
@@ -209,6 +1116,7 @@ public class GitHelper {
 	 * @throws IOException
 	 */
 	public static void deleteRepo(String localPath) throws IOException {
+		RepoPool.getInstance().invalidate(localPath);
 		FileUtils.deleteDirectory(new File(localPath));
 	} 
 	
@@ -219,15 +1127,23 @@ public class GitHelper {
 	 * @param name
 	 * @throws GitError
 	 */
-	public static void checkout(String localPath, String name) throws GitError {
+	public static void checkout(String localPath, String name, List<String> sparse) throws GitError {
+		Repository repo = null;
 		try {
-			Git git = Git.open(new File(localPath));
+			repo = RepoPool.getInstance().acquire(localPath);
+			if (sparse != null) {
+				SparseCheckout.checkout(repo, name, sparse);
+				return;
+			}
+			Git git = new Git(repo);
 			CheckoutCommand co = git.checkout();
 			co.setName(name);
 			co.call();
 		} catch (Exception e) {
 			GittApp.saveErrorTrace(e);
 			throw new GitError();
+		} finally {
+			RepoPool.getInstance().release(repo);
 		}
 	}
 	
@@ -237,19 +1153,28 @@ public class GitHelper {
 	 * @param localPath
 	 * @param user
 	 * @param password
+	 * @param sparse folders checked out, null for all
 	 * @param pm
 	 * @throws GitError
 	 */
-	public static void pull(String localPath, String user, String password, ProgressMonitor pm) throws GitError {
+	public static void pull(String localPath, String user, String password,
+			List<String> sparse, ProgressMonitor pm) throws GitError {
+		Repository repo = null;
 		try {
-			Git git = Git.open(new File(localPath));
-			PullCommand pull = git.pull();
-			pull.setProgressMonitor(pm);
+			repo = RepoPool.getInstance().acquire(localPath);
+			Git git = new Git(repo);
+			UsernamePasswordCredentialsProvider access = null;
 			if ((user != null) && (password != null)) {
-				UsernamePasswordCredentialsProvider access = new UsernamePasswordCredentialsProvider(
-						user, password);
-				pull.setCredentialsProvider(access);
+				access = new UsernamePasswordCredentialsProvider(user, password);
 			}
+			if (sparse != null) {
+				pullSparse(git, access, sparse, pm);
+				return;
+			}
+			PullCommand pull = git.pull();
+			pull.setTimeout(timeout);
+			pull.setProgressMonitor(pm);
+			pull.setCredentialsProvider(access);
 			pull.call();
 			return;
 		} catch (DetachedHeadException e) {
@@ -261,89 +1186,262 @@ public class GitHelper {
 			GittApp.saveErrorTrace(e);
 			throw new NotGitRepoError();
 		} catch (TransportException e) {
-			String trace = GittApp.saveErrorTrace(e);
-			if (trace.indexOf("not authorized") != -1) {
-				Log.e(TAG, "Auth", e);
-				throw new AuthFailError();
-			}
-			Log.e(TAG, "Transport", e);
-			throw new ConnectionError();
+			checkCancelled(pm);
+			GittApp.saveErrorTrace(e);
+			GitError error = transportError(e);
+			Log.e(TAG, "Transport: " + error.getClass().getSimpleName(), e);
+			throw error;
 		} catch (GitAPIException e) {
+			checkCancelled(pm);
 			Log.e(TAG, "GitApi", e);
 			GittApp.saveErrorTrace(e);
 		} catch (IOException e) {
 			Log.e(TAG, "IO", e);
 			GittApp.saveErrorTrace(e);
 		} catch (JGitInternalException e) {
+			checkCancelled(pm);
 			Log.e(TAG, "GitInternal", e);
 			GittApp.saveErrorTrace(e);
 			if (e.getCause() instanceof NotSupportedException) {
 				throw new ConnectionError();
 			}
+		} finally {
+			RepoPool.getInstance().release(repo);
 		}
 		throw new GitError();
 	}
 	
 	/**
-	 * Read log messages, up to maxRecords
+	 * Fetch and move current branch to fetched commit, without jgit merge:
+	 * it would take files out of sparse patterns for deleted.
 	 * 
-	 * @param repoPath
-	 * @param maxRecords
-	 * @return
+	 * @param git
+	 * @param access
+	 * @param sparse
+	 * @param pm
+	 * @throws GitAPIException
+	 * @throws IOException
+	 * @throws GitError
 	 */
-	public static List<LogEntry> readRepoHistory(String repoPath, int maxRecords) {
-		ArrayList<LogEntry> result = new ArrayList<GitHelper.LogEntry>(maxRecords);
+	private static void pullSparse(Git git, UsernamePasswordCredentialsProvider access,
+			List<String> sparse, ProgressMonitor pm) throws GitAPIException, IOException, GitError {
+		String branch = git.getRepository().getFullBranch();
+		if ((branch == null) || !branch.startsWith(Constants.R_HEADS)) {
+			throw new NoHeadError();
+		}
+		FetchCommand fetch = git.fetch();
+		fetch.setRemote(REMOTE);
+		fetch.setTimeout(timeout);
+		fetch.setProgressMonitor(pm);
+		fetch.setCredentialsProvider(access);
+		fetch.call();
+		checkCancelled(pm);
+		if (!SparseCheckout.moveToUpstream(git.getRepository(), sparse)) {
+			throw new NoHeadError();
+		}
+	}
+	
+	/**
+	 * Change folders in working tree to match new sparse patterns.
+	 * 
+	 * @param localPath
+	 * @param sparse folders, null for full working tree
+	 * @throws GitError
+	 */
+	public static void applySparse(String localPath, List<String> sparse) throws GitError {
+		Repository repo = null;
 		try {
-			Git git = Git.open(new File(repoPath));
-			Iterable<RevCommit> logs = git.log().call();
-			for (RevCommit commit: logs) {
-				result.add(new LogEntry(commit));
-				if (--maxRecords == 0) break; 
-			}
+			repo = RepoPool.getInstance().acquire(localPath);
+			SparseCheckout.reapply(repo, sparse);
 		} catch (IOException e) {
 			Log.e(TAG, "IO", e);
-		} catch (NoHeadException e) {
-			Log.e(TAG, "NoHead", e);
-		} catch (GitAPIException e) {
-			Log.e(TAG, "GitApi", e);
-		}
-		if (maxRecords > 0) {
-			result.trimToSize();
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			RepoPool.getInstance().release(repo);
 		}
-		return result;
 	}
 	
 	/**
-	 * Log entry.
-	 * 
-	 * To be updated for more features.
+	 * Log entry: header fields only, commit body is not kept.
+	 * Read from a walk or from CommitIndex; full message is read
+	 * on demand by LogPager.
 	 * 
 	 * @author Andrew Romanenco
 	 *
 	 */
 	public static class LogEntry {
 		
-		private RevCommit commit;
+		private final String id;
+		private final String author;
+		private final int time; // commit time, seconds
+		private final String summary;
+		final long position; // in commit index, 0 if not read from it
+		
+		LogEntry(String id, String author, int time, String summary, long position) {
+			this.id = id;
+			this.author = author;
+			this.time = time;
+			this.summary = summary;
+			this.position = position;
+		}
+		
+		/**
+		 * Entry from commit headers and raw commit.
+		 * 
+		 * @param commit with parsed headers
+		 * @param raw commit object
+		 * @return
+		 */
+		static LogEntry parse(RevCommit commit, byte[] raw) {
+			PersonIdent ident = author(raw);
+			return new LogEntry(commit.name(), (ident != null) ? ident.getName() : "",
+					commit.getCommitTime(), summary(raw), 0);
+		}
+		
+		/**
+		 * Author of raw commit.
+		 * 
+		 * @param raw
+		 * @return null if missing
+		 */
+		static PersonIdent author(byte[] raw) {
+			int ptr = RawParseUtils.author(raw, 0);
+			return (ptr < 0) ? null : RawParseUtils.parsePersonIdent(raw, ptr);
+		}
+		
+		/**
+		 * First paragraph of message of raw commit, in one line.
+		 * 
+		 * @param raw
+		 * @return
+		 */
+		static String summary(byte[] raw) {
+			int start = RawParseUtils.commitMessage(raw, 0);
+			if (start < 0) return "";
+			int end = RawParseUtils.endOfParagraph(raw, start);
+			return RawParseUtils.decode(RawParseUtils.parseEncoding(raw), raw, start, end)
+					.replace('\n', ' ');
+		}
+		
+		/**
+		 * Whole message of raw commit.
+		 * 
+		 * @param raw
+		 * @return
+		 */
+		static String message(byte[] raw) {
+			int start = RawParseUtils.commitMessage(raw, 0);
+			if (start < 0) return "";
+			return RawParseUtils.decode(RawParseUtils.parseEncoding(raw), raw, start, raw.length);
+		}
+		
+		private static final long DAY_MS = 24 * 60 * 60 * 1000;
+		
+		/**
+		 * Max formatted days to keep.
+		 */
+		private static final int DATES = 256;
+		
+		private static final DateFormat format = new SimpleDateFormat("MMM dd, yyyy");
+		
+		/**
+		 * Formatted dates by local day, access ordered.
+		 * Also guards format, which is not thread safe.
+		 */
+		private static final Map<Long, String> dates =
+				new LinkedHashMap<Long, String>(DATES, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+				return size() > DATES;
+			}
+		};
+		
+		/**
+		 * First line of message.
+		 * 
+		 * @return
+		 */
+		public String getSummary() {
+			return summary;
+		}
+		
+		public String getAuthor() {
+			return author;
+		}
 		
-		private LogEntry(RevCommit commit) {
-			this.commit = commit;
+		/**
+		 * Commit time in seconds.
+		 * 
+		 * @return
+		 */
+		public int getTime() {
+			return time;
 		}
 		
-		private static DateFormat format = new SimpleDateFormat("MMM dd, yyyy");
+		/**
+		 * Commit date; same for all commits of a day, so formatted once.
+		 * Called from any thread.
+		 * 
+		 * @return
+		 */
+		public String getDate() {
+			long ms = (long)time*1000;
+			Long day = (ms + TimeZone.getDefault().getOffset(ms)) / DAY_MS;
+			synchronized (dates) {
+				String date = dates.get(day);
+				if (date == null) {
+					date = format.format(new Date(ms));
+					dates.put(day, date);
+				}
+				return date;
+			}
+		}
 		
-		public String getText() {
-			StringBuilder sb = new StringBuilder();
-			sb.append(commit.getAuthorIdent() != null ? commit.getAuthorIdent().getName(): "");
-			sb.append("\n");
-			Date date = new Date((long)commit.getCommitTime()*1000);
-			sb.append(format.format(date));
-			sb.append("\n");
-			sb.append(commit.getId().getName());
-			sb.append("\n");
-			sb.append("\n");
-			sb.append(commit.getFullMessage());
-			return sb.toString();
+		public String getId() {
+			return id;
 		}
 	}
 
+	/**
+	 * File or folder of a tree in object database.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public static class TreeEntry {
+		public String name;
+		public String id;
+		public boolean folder;
+		public long size;
+	}
+	
+	/**
+	 * Outcome of clone.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public static class Cloned {
+		public List<String> refs;
+		public String remoteState;
+	}
+	
+	/**
+	 * Repo storage split, in bytes.
+	 * 
+	 * @author Andrew Romanenco
+	 *
+	 */
+	public static class StorageSize {
+		public long packs;
+		public long loose;
+		public long worktree;
+		public long packFiles; // count
+		public long looseObjects; // count
+	}
+
 }
@@ -0,0 +1,684 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import android.util.Log;
+
+import com.romanenco.gitt.GittApp;
+import com.romanenco.gitt.git.GitHelper.LogEntry;
+
+/**
+ * History of current branch, or of one path, read page by page.
+ * 
+ * Pages come from CommitIndex if it is built for HEAD, otherwise
+ * from a walk. Memory does not grow with pages read: between pages
+ * only walk frontier is kept (commits to visit next, newest commit
+ * date first, same order as RevWalk), and every page gets a fresh
+ * RevWalk which is released after it. Start of every page is kept
+ * as a small mark (index entry or frontier), so a page dropped by
+ * the list can be read again.
+ * 
+ * Search reads all hits from commit index at once (they are few),
+ * and hands them out by pages.
+ * 
+ * History of a path follows renames of a file; path is checked commit
+ * by commit, so it is streamed too. First entries read are kept by
+ * path and start commit when pager is closed, so same history is
+ * shown again without walking; walk continues where cached ones end.
+ * 
+ * Must be closed when not needed: it holds repo from RepoPool.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class LogPager {
+	
+	private static final String TAG = "LogPager";
+	
+	/**
+	 * Max search hits.
+	 */
+	private static final int SEARCH_LIMIT = 200;
+	
+	/**
+	 * Max path histories to keep.
+	 */
+	private static final int HISTORIES = 8;
+	
+	/**
+	 * Max entries kept of one path history.
+	 */
+	private static final int HISTORY_ENTRIES = 500;
+	
+	/**
+	 * Commits recently shown, to skip one reached again through
+	 * a parent with newer date (clock skew).
+	 */
+	private static final int RECENT = 1024;
+	
+	/**
+	 * Mark after last page.
+	 */
+	private static final Object END = new Object();
+	
+	/**
+	 * Path histories by repo, start commit and path; access ordered.
+	 */
+	private static final Map<String, History> histories =
+			new LinkedHashMap<String, History>(HISTORIES, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, History> eldest) {
+			return size() > HISTORIES;
+		}
+	};
+	
+	private final boolean firstParent;
+	private Repository repo;
+	private CommitIndex index;
+	private CommitIndex.Query query; // search only
+	private List<LogEntry> hits; // search only, read on first page
+	
+	/**
+	 * Where each page read so far starts: LogEntry after for index,
+	 * Frontier for walk, Integer offset in history for cached path history
+	 * or in search hits.
+	 */
+	private final List<Object> marks = new ArrayList<Object>();
+	private Object next; // mark of next page
+	
+	private final Map<ObjectId, Boolean> recent =
+			new LinkedHashMap<ObjectId, Boolean>(RECENT, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, Boolean> eldest) {
+			return size() > RECENT;
+		}
+	};
+	
+	// path history only
+	private String path;
+	private boolean follow; // path is a file: follow renames
+	private String key;
+	private List<LogEntry> history; // first entries, up to HISTORY_ENTRIES
+	private Object historyEnd; // mark after last entry of history
+	
+	/**
+	 * Start from HEAD.
+	 * 
+	 * @param localPath
+	 * @param firstParent follow only first parent of merges
+	 * @throws GitError
+	 */
+	public LogPager(String localPath, boolean firstParent) throws GitError {
+		this.firstParent = firstParent;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			ObjectId head = repo.resolve(Constants.HEAD);
+			if (head == null) {
+				next = END; // empty repo
+				return;
+			}
+			index = CommitIndex.open(repo);
+			if ((index != null) && !index.isCurrent(head)) {
+				index.close();
+				index = null;
+			}
+			next = (index != null) ? null : Frontier.of(repo, head, null);
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			close();
+			throw new GitError();
+		}
+	}
+	
+	/**
+	 * Commits which changed a file or folder.
+	 * 
+	 * @param localPath
+	 * @param path relative to repo root
+	 * @param revision to start from, null for HEAD
+	 * @throws GitError
+	 */
+	public LogPager(String localPath, String path, String revision) throws GitError {
+		this.firstParent = false;
+		this.path = path;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+			ObjectId start = repo.resolve(((revision != null) ? revision : Constants.HEAD) + "^{commit}");
+			if (start == null) {
+				next = END; // empty repo
+				return;
+			}
+			RevWalk walk = new RevWalk(repo);
+			try {
+				TreeWalk entry = TreeWalk.forPath(repo, path, walk.parseCommit(start).getTree());
+				follow = (entry != null) && (entry.getFileMode(0) != FileMode.TREE);
+				if (entry != null) {
+					entry.release();
+				}
+			} finally {
+				walk.release();
+			}
+			key = repo.getDirectory().getPath() + ":" + start.name() + ":" + path;
+			History cached;
+			synchronized (histories) {
+				cached = histories.get(key);
+			}
+			if (cached != null) {
+				history = new ArrayList<LogEntry>(cached.entries);
+				historyEnd = cached.end;
+			} else {
+				history = new ArrayList<LogEntry>();
+				historyEnd = Frontier.of(repo, start, path);
+			}
+			next = Integer.valueOf(0);
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			close();
+			throw new GitError();
+		}
+	}
+	
+	/**
+	 * Commits found in commit index, best first.
+	 * Index need not be built for HEAD. If there is no index,
+	 * nothing is found: check isIndexed().
+	 * 
+	 * @param localPath
+	 * @param query
+	 * @throws GitError
+	 */
+	public LogPager(String localPath, CommitIndex.Query query) throws GitError {
+		this.firstParent = query.firstParent;
+		this.query = query;
+		try {
+			repo = RepoPool.getInstance().acquire(localPath);
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		}
+		index = CommitIndex.open(repo);
+		next = (index == null) ? END : null;
+	}
+	
+	/**
+	 * Read next page.
+	 * 
+	 * @param count max entries
+	 * @return empty list when history is over
+	 * @throws GitError
+	 */
+	public synchronized List<LogEntry> next(int count) throws GitError {
+		if ((next == END) || (repo == null)) {
+			return new ArrayList<LogEntry>();
+		}
+		Page page = read(next, count);
+		marks.add(next);
+		if ((history != null) && (page.walkedFrom == historyEnd)
+				&& (history.size() + page.walked.size() <= HISTORY_ENTRIES)) {
+			history.addAll(page.walked);
+			historyEnd = page.next;
+		}
+		next = page.next;
+		return page.entries;
+	}
+	
+	/**
+	 * Read again a page read by next().
+	 * 
+	 * @param number of page, from 0
+	 * @param count same as for next()
+	 * @return
+	 * @throws GitError
+	 */
+	public synchronized List<LogEntry> page(int number, int count) throws GitError {
+		if (repo == null) {
+			throw new GitError(); // closed
+		}
+		return read(marks.get(number), count).entries;
+	}
+	
+	/**
+	 * Whole message of a commit, for entry being expanded.
+	 * Only one object is read, walk is not touched.
+	 * 
+	 * @param id
+	 * @return
+	 * @throws GitError
+	 */
+	public synchronized String readMessage(String id) throws GitError {
+		if (repo == null) {
+			throw new GitError(); // closed
+		}
+		ObjectReader reader = repo.newObjectReader();
+		try {
+			byte[] raw = reader.open(ObjectId.fromString(id), Constants.OBJ_COMMIT).getCachedBytes();
+			return LogEntry.message(raw);
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		} finally {
+			reader.release();
+		}
+	}
+	
+	/**
+	 * Number of commits, if known without walking.
+	 * 
+	 * @return -1 if not known
+	 * @throws GitError
+	 */
+	public synchronized long count() throws GitError {
+		if (query != null) {
+			return -1; // counted when read
+		}
+		if (index != null) {
+			return index.count(firstParent);
+		}
+		if ((history != null) && (historyEnd == END)) {
+			return history.size();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Pages are read from commit index.
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isIndexed() {
+		return index != null;
+	}
+	
+	public synchronized boolean isFinished() {
+		return next == END;
+	}
+	
+	/**
+	 * Release repo. Waits for page being read.
+	 * Path history read so far is kept for next pager.
+	 */
+	public synchronized void close() {
+		next = END;
+		if ((key != null) && (history != null)) {
+			synchronized (histories) {
+				History cached = histories.get(key);
+				if ((cached == null) || (cached.entries.size() < history.size())
+						|| ((historyEnd == END) && (cached.end != END))) {
+					histories.put(key, new History(history, historyEnd));
+				}
+			}
+			history = null;
+		}
+		if (index != null) {
+			index.close();
+			index = null;
+		}
+		RepoPool.getInstance().release(repo);
+		repo = null;
+	}
+	
+	/**
+	 * Entries from a mark, and mark after them.
+	 */
+	private Page read(Object mark, int count) throws GitError {
+		if (mark == END) {
+			return new Page(new ArrayList<LogEntry>(), END);
+		}
+		if (query != null) {
+			if (hits == null) {
+				hits = index.search(query, SEARCH_LIMIT);
+			}
+			int offset = (mark != null) ? (Integer) mark : 0;
+			int end = Math.min(hits.size(), offset + count);
+			return new Page(new ArrayList<LogEntry>(hits.subList(offset, end)),
+					(end < hits.size()) ? Integer.valueOf(end) : END);
+		}
+		if (index != null) {
+			List<LogEntry> entries = index.page((LogEntry) mark, count, firstParent);
+			return new Page(entries, (entries.size() < count) ? END
+					: entries.get(entries.size() - 1));
+		}
+		List<LogEntry> entries = new ArrayList<LogEntry>(count);
+		Object from = mark;
+		if (mark instanceof Integer) {
+			int offset = (Integer) mark;
+			while ((entries.size() < count) && (offset < history.size())) {
+				entries.add(history.get(offset++));
+			}
+			from = historyEnd;
+			if ((entries.size() == count) || (from == END)) {
+				return new Page(entries, (offset < history.size()) ? Integer.valueOf(offset) : from);
+			}
+		}
+		try {
+			Page page = walk((Frontier) from, entries, count);
+			page.walkedFrom = from;
+			return page;
+		} catch (IOException e) {
+			Log.e(TAG, "IO", e);
+			GittApp.saveErrorTrace(e);
+			throw new GitError();
+		}
+	}
+	
+	/**
+	 * Walk from frontier, newest commit date first, adding entries
+	 * till count. Walk is released after page.
+	 */
+	private Page walk(Frontier from, List<LogEntry> entries, int count) throws IOException {
+		List<LogEntry> walked = new ArrayList<LogEntry>(count - entries.size());
+		RevWalk walk = new RevWalk(repo);
+		walk.setRetainBody(true); // bodies live for one page, walk is released after
+		try {
+			Queue queue = new Queue(from);
+			PathChangeFilter filter = (path != null)
+					? new PathChangeFilter(repo, from.path, follow) : null;
+			while (entries.size() < count) {
+				ObjectId id = queue.poll();
+				if (id == null) {
+					Page page = new Page(entries, END);
+					page.walked = walked;
+					return page;
+				}
+				RevCommit commit = walk.parseCommit(id);
+				int parents = firstParent ? Math.min(1, commit.getParentCount()) : commit.getParentCount();
+				for (int i = 0; i < parents; i++) {
+					RevCommit parent = commit.getParent(i);
+					walk.parseHeaders(parent);
+					if ((parent.getCommitTime() > commit.getCommitTime())
+							&& recent.containsKey(parent)) {
+						continue; // newer parent, shown already
+					}
+					queue.add(parent, parent.getCommitTime());
+				}
+				recent.put(id, Boolean.TRUE);
+				if ((filter == null) || filter.include(walk, commit)) {
+					LogEntry entry = LogEntry.parse(commit, commit.getRawBuffer());
+					entries.add(entry);
+					walked.add(entry);
+				}
+			}
+			Frontier rest = queue.snapshot((filter != null) ? filter.path : null);
+			Page page = new Page(entries, (rest != null) ? rest : END);
+			page.walked = walked;
+			return page;
+		} finally {
+			walk.release();
+		}
+	}
+	
+	/**
+	 * Entries of a page and mark of next one.
+	 */
+	private static class Page {
+		
+		final List<LogEntry> entries;
+		final Object next;
+		List<LogEntry> walked = Collections.emptyList(); // entries read by walk
+		Object walkedFrom; // frontier walk started from
+		
+		Page(List<LogEntry> entries, Object next) {
+			this.entries = entries;
+			this.next = next;
+		}
+	}
+	
+	/**
+	 * Commits to visit next, newest first, with path followed so far.
+	 * Immutable: same frontier gives same page.
+	 */
+	private static class Frontier {
+		
+		final ObjectId[] ids;
+		final int[] times;
+		final String path;
+		
+		Frontier(ObjectId[] ids, int[] times, String path) {
+			this.ids = ids;
+			this.times = times;
+			this.path = path;
+		}
+		
+		static Frontier of(Repository repo, ObjectId start, String path) throws IOException {
+			RevWalk walk = new RevWalk(repo);
+			try {
+				RevCommit commit = walk.parseCommit(start);
+				return new Frontier(new ObjectId[] {commit.copy()},
+						new int[] {commit.getCommitTime()}, path);
+			} finally {
+				walk.release();
+			}
+		}
+	}
+	
+	/**
+	 * Frontier being walked. Commits of same time leave in order
+	 * they came, as in RevWalk; commit already waiting is not added.
+	 */
+	private static class Queue {
+		
+		private final TreeSet<Node> nodes = new TreeSet<Node>();
+		private final Map<ObjectId, Node> waiting = new HashMap<ObjectId, Node>();
+		private long sequence;
+		
+		Queue(Frontier frontier) {
+			for (int i = 0; i < frontier.ids.length; i++) {
+				add(frontier.ids[i], frontier.times[i]);
+			}
+		}
+		
+		void add(AnyObjectId id, int time) {
+			if (waiting.containsKey(id)) {
+				return;
+			}
+			Node node = new Node(id.copy(), time, sequence++);
+			nodes.add(node);
+			waiting.put(node.id, node);
+		}
+		
+		ObjectId poll() {
+			Node node = nodes.pollFirst();
+			if (node == null) {
+				return null;
+			}
+			waiting.remove(node.id);
+			return node.id;
+		}
+		
+		/**
+		 * @return null if nothing is left
+		 */
+		Frontier snapshot(String path) {
+			if (nodes.isEmpty()) {
+				return null;
+			}
+			ObjectId[] ids = new ObjectId[nodes.size()];
+			int[] times = new int[nodes.size()];
+			int i = 0;
+			for (Node node: nodes) {
+				ids[i] = node.id;
+				times[i++] = node.time;
+			}
+			return new Frontier(ids, times, path);
+		}
+	}
+	
+	private static class Node implements Comparable<Node> {
+		
+		final ObjectId id;
+		final int time;
+		final long sequence;
+		
+		Node(ObjectId id, int time, long sequence) {
+			this.id = id;
+			this.time = time;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Node another) {
+			if (time != another.time) {
+				return (time > another.time) ? -1 : 1;
+			}
+			return (sequence < another.sequence) ? -1 : ((sequence == another.sequence) ? 0 : 1);
+		}
+	}
+	
+	/**
+	 * Commits where path differs from every parent (from nothing for
+	 * root commit). Only path entries are compared, so a commit costs
+	 * a few tree reads. Commit which adds a followed file is checked
+	 * for rename, and older commits are matched by old name.
+	 */
+	private static class PathChangeFilter extends RevFilter {
+		
+		private final Repository repo;
+		private final boolean follow;
+		private String path;
+		
+		PathChangeFilter(Repository repo, String path, boolean follow) {
+			this.repo = repo;
+			this.path = path;
+			this.follow = follow;
+		}
+
+		@Override
+		public boolean include(RevWalk walker, RevCommit commit) throws IOException {
+			int parents = commit.getParentCount();
+			AnyObjectId[] trees = new AnyObjectId[parents + 1];
+			trees[0] = commit.getTree();
+			for (int i = 0; i < parents; i++) {
+				RevCommit parent = commit.getParent(i);
+				walker.parseHeaders(parent);
+				trees[i + 1] = parent.getTree();
+			}
+			ObjectReader reader = walker.getObjectReader();
+			TreeWalk entry = TreeWalk.forPath(reader, path, trees);
+			if (entry == null) {
+				return false; // not in commit nor in parents
+			}
+			boolean added;
+			try {
+				for (int i = 1; i <= parents; i++) {
+					if ((entry.getRawMode(i) == entry.getRawMode(0)) && entry.idEqual(i, 0)) {
+						return false; // same as in this parent
+					}
+				}
+				added = (parents > 0) && (entry.getRawMode(0) != 0) && (entry.getRawMode(1) == 0);
+			} finally {
+				entry.release();
+			}
+			if (follow && added) {
+				String source = renameSource(reader, trees[1], trees[0]);
+				if (source != null) {
+					Log.d(TAG, "Following rename: " + source + " -> " + path);
+					path = source;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Old name of path, if it was renamed or copied from parent.
+		 */
+		private String renameSource(ObjectReader reader, AnyObjectId parent,
+				AnyObjectId tree) throws IOException {
+			TreeWalk diff = new TreeWalk(reader);
+			try {
+				diff.setRecursive(true);
+				diff.setFilter(TreeFilter.ANY_DIFF);
+				diff.addTree(parent);
+				diff.addTree(tree);
+				RenameDetector detector = new RenameDetector(repo);
+				detector.addAll(DiffEntry.scan(diff));
+				for (DiffEntry change: detector.compute(reader, NullProgressMonitor.INSTANCE)) {
+					if (((change.getChangeType() == ChangeType.RENAME)
+							|| (change.getChangeType() == ChangeType.COPY))
+							&& change.getNewPath().equals(path)) {
+						return change.getOldPath();
+					}
+				}
+				return null;
+			} finally {
+				diff.release();
+			}
+		}
+
+		@Override
+		public boolean requiresCommitBody() {
+			return false;
+		}
+
+		@Override
+		public RevFilter clone() {
+			return new PathChangeFilter(repo, path, follow);
+		}
+	}
+	
+	/**
+	 * First entries of a path history, and mark after them.
+	 */
+	private static class History {
+		
+		final List<LogEntry> entries;
+		final Object end; // Frontier or END
+		
+		History(List<LogEntry> entries, Object end) {
+			this.entries = Collections.unmodifiableList(new ArrayList<LogEntry>(entries));
+			this.end = end;
+		}
+	}
+
+}
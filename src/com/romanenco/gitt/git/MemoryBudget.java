@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import org.eclipse.jgit.storage.file.WindowCache;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import android.util.Log;
+
+/**
+ * jgit memory caches sized for the device, instead of desktop defaults.
+ * 
+ * Budget is a share of app heap (memory class):
+ * - pack windows: 1/8 of heap;
+ * - delta bases: 1/16 of heap;
+ * - blobs bigger than 1/8 of heap are streamed, never loaded whole.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+public class MemoryBudget {
+	
+	private static final String TAG = "MemoryBudget";
+	
+	private static final int MB = WindowCacheConfig.MB;
+	private static final int KB = WindowCacheConfig.KB;
+	
+	private static WindowCacheConfig config;
+	private static int flushes;
+	
+	/**
+	 * Size jgit caches from app heap limit.
+	 * 
+	 * @param memoryClass heap limit in mb
+	 * @param mmap map pack windows to memory instead of reading them to heap
+	 */
+	public static synchronized void apply(int memoryClass, boolean mmap) {
+		long heap = (long)memoryClass * MB;
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitLimit(Math.max(2 * MB, heap / 8));
+		// bigger windows mean less reads, but more waste on small packs
+		cfg.setPackedGitWindowSize((memoryClass >= 128) ? 16 * KB : 8 * KB);
+		cfg.setPackedGitOpenFiles((memoryClass >= 64) ? 128 : 32);
+		cfg.setPackedGitMMAP(mmap);
+		cfg.setDeltaBaseCacheLimit((int)Math.max(MB, heap / 16));
+		cfg.setStreamFileThreshold((int)Math.max(MB, heap / 8));
+		WindowCache.reconfigure(cfg);
+		config = cfg;
+		Log.d(TAG, "Applied: " + MemoryBudget.asString());
+	}
+	
+	/**
+	 * Drop all cached pack windows and delta bases, e.g. on low memory.
+	 * Cache is rebuilt with the same budget.
+	 */
+	public static synchronized void flush() {
+		if (config == null) return;
+		WindowCache.reconfigure(config);
+		flushes++;
+	}
+	
+	/**
+	 * Current budget.
+	 * 
+	 * @return null if not applied, jgit defaults are used
+	 */
+	public static synchronized WindowCacheConfig getConfig() {
+		return config;
+	}
+	
+	public static synchronized int getFlushes() {
+		return flushes;
+	}
+	
+	/**
+	 * Heap in use now, bytes. Window cache usage is not public in jgit,
+	 * so this is the closest figure to watch against the budget.
+	 * 
+	 * @return
+	 */
+	public static long getHeapUsed() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	public static long getHeapMax() {
+		return Runtime.getRuntime().maxMemory();
+	}
+	
+	/**
+	 * Budget of jgit caches, heap usage and repo pool counters.
+	 * 
+	 * @return
+	 */
+	public static synchronized String asString() {
+		StringBuilder result = new StringBuilder();
+		if (config != null) {
+			result.append("limit=").append(config.getPackedGitLimit() / KB).append("kb")
+				.append(" window=").append(config.getPackedGitWindowSize() / KB).append("kb")
+				.append(" mmap=").append(config.isPackedGitMMAP())
+				.append(" deltaBase=").append(config.getDeltaBaseCacheLimit() / KB).append("kb")
+				.append(" stream=").append(config.getStreamFileThreshold() / KB).append("kb ");
+		}
+		result.append("heap=").append(getHeapUsed() / KB).append("kb")
+			.append(" of ").append(getHeapMax() / KB).append("kb")
+			.append(" flushes=").append(flushes)
+			.append("; ").append(RepoPool.getInstance());
+		return result.toString();
+	}
+
+}
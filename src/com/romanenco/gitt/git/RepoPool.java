@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.util.FS;
+
+import android.util.Log;
+
+/**
+ * Shared pool of opened repositories, keyed by repo folder.
+ *
+ * Every acquire must be paired with release. Repository with no users
+ * stays open (idle) so next operation reuses parsed config and pack indexes.
+ * Least recently used idle repositories are closed when there are too many.
+ *
+ * @author Andrew Romanenco
+ *
+ */
+public class RepoPool {
+
+	private static final String TAG = "RepoPool";
+
+	/**
+	 * Max number of idle repos to keep open.
+	 */
+	private static final int MAX_IDLE = 3;
+
+	private static final RepoPool instance = new RepoPool(MAX_IDLE);
+
+	private final int maxIdle;
+
+	/**
+	 * Access ordered: first item is least recently used.
+	 */
+	private final LinkedHashMap<String, Entry> entries =
+			new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * Invalidated while in use: closed by last release.
+	 */
+	private final List<Entry> dropped = new ArrayList<Entry>();
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long openTime; // total ms spent opening repos
+
+	public static RepoPool getInstance() {
+		return instance;
+	}
+
+	RepoPool(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Get opened repository for a folder.
+	 * Caller must release it when done.
+	 *
+	 * @param localPath
+	 * @return
+	 * @throws IOException if folder is not a git repo
+	 */
+	public synchronized Repository acquire(String localPath) throws IOException {
+		String key = keyFor(localPath);
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			hits++;
+		} else {
+			misses++;
+			long start = System.currentTimeMillis();
+			Repository repo = FileKey.lenient(new File(key), FS.DETECTED).open(true);
+			openTime += System.currentTimeMillis() - start;
+			entry = new Entry(repo);
+			entries.put(key, entry);
+		}
+		entry.users++;
+		return entry.repo;
+	}
+
+	/**
+	 * Return repository to the pool.
+	 *
+	 * @param repo
+	 */
+	public synchronized void release(Repository repo) {
+		if (repo == null) return;
+		for (Entry entry: entries.values()) {
+			if (entry.repo == repo) {
+				if (entry.users > 0) entry.users--;
+				trimIdle();
+				return;
+			}
+		}
+		Iterator<Entry> iter = dropped.iterator();
+		while (iter.hasNext()) {
+			Entry entry = iter.next();
+			if (entry.repo == repo) {
+				if (--entry.users <= 0) {
+					iter.remove();
+					repo.close();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Close and forget repo for a folder, e.g. before delete or re-clone.
+	 * If repo is in use, it is closed by last release.
+	 *
+	 * @param localPath
+	 */
+	public synchronized void invalidate(String localPath) {
+		Entry entry = entries.remove(keyFor(localPath));
+		if (entry == null) return;
+		if (entry.users == 0) {
+			entry.repo.close();
+		} else {
+			dropped.add(entry);
+		}
+	}
+
+	/**
+	 * Close all idle repos, e.g. on low memory.
+	 */
+	public synchronized void clearIdle() {
+		Iterator<Entry> iter = entries.values().iterator();
+		while (iter.hasNext()) {
+			Entry entry = iter.next();
+			if (entry.users == 0) {
+				iter.remove();
+				entry.repo.close();
+				evictions++;
+			}
+		}
+	}
+
+	private void trimIdle() {
+		int idle = 0;
+		for (Entry entry: entries.values()) {
+			if (entry.users == 0) idle++;
+		}
+		if (idle <= maxIdle) return;
+		List<String> lru = new ArrayList<String>();
+		for (Map.Entry<String, Entry> item: entries.entrySet()) {
+			if (item.getValue().users == 0) {
+				lru.add(item.getKey());
+				if (--idle == maxIdle) break;
+			}
+		}
+		for (String key: lru) {
+			Log.d(TAG, "Evicting: " + key);
+			entries.remove(key).repo.close();
+			evictions++;
+		}
+	}
+
+	private static String keyFor(String localPath) {
+		File dir = new File(localPath);
+		try {
+			return dir.getCanonicalPath();
+		} catch (IOException e) {
+			return dir.getAbsolutePath();
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Total time in ms spent on opening repos (misses only).
+	 *
+	 * @return
+	 */
+	public synchronized long getOpenTime() {
+		return openTime;
+	}
+
+	public synchronized int getOpenCount() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RepoPool: open=" + entries.size() + " hits=" + hits
+				+ " misses=" + misses + " evictions=" + evictions
+				+ " openTime=" + openTime + "ms";
+	}
+
+	private static class Entry {
+		final Repository repo;
+		int users;
+
+		Entry(Repository repo) {
+			this.repo = repo;
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013 Andrew Romanenco.
+ * 
+ * This file is part of Gitt.
+ * 
+ * Gitt is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Gitt is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Gitt.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package com.romanenco.gitt.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import android.util.Log;
+
+/**
+ * Working tree limited to some folders.
+ * 
+ * jgit 2.3 has no sparse checkout, so files are written here.
+ * Index holds exactly the files on disk: paths out of patterns are
+ * not in it. So such repo is never checked out or merged by jgit,
+ * it would take missing entries for deleted files.
+ * 
+ * @author Andrew Romanenco
+ *
+ */
+class SparseCheckout {
+	
+	private static final String TAG = "SparseCheckout";
+	
+	/**
+	 * Point HEAD to a ref and update working tree.
+	 * Local branch is linked, anything else is detached.
+	 * 
+	 * @param repo
+	 * @param name full ref name or commit id
+	 * @param patterns
+	 * @throws IOException
+	 */
+	static void checkout(Repository repo, String name, List<String> patterns) throws IOException {
+		ObjectId commit = repo.resolve(name + "^{commit}");
+		if (commit == null) {
+			throw new IOException("Can't resolve " + name);
+		}
+		boolean branch = name.startsWith(Constants.R_HEADS);
+		RefUpdate head = repo.updateRef(Constants.HEAD, !branch);
+		if (branch) {
+			check(head.link(name));
+		} else {
+			head.setNewObjectId(commit);
+			check(head.forceUpdate());
+		}
+		update(repo, commit, patterns);
+	}
+	
+	/**
+	 * Move current branch to its remote tracking branch, after fetch.
+	 * Nothing is committed on device, so it's fast forward, or reset
+	 * if remote history was rewritten.
+	 * 
+	 * @param repo
+	 * @param patterns
+	 * @return false if HEAD is detached
+	 * @throws IOException
+	 */
+	static boolean moveToUpstream(Repository repo, List<String> patterns) throws IOException {
+		String branch = repo.getFullBranch();
+		if ((branch == null) || !branch.startsWith(Constants.R_HEADS)) {
+			return false;
+		}
+		String tracking = new BranchConfig(repo.getConfig(),
+				Repository.shortenRefName(branch)).getRemoteTrackingBranch();
+		ObjectId commit = (tracking == null) ? null : repo.resolve(tracking);
+		if (commit == null) {
+			return false;
+		}
+		RefUpdate ref = repo.updateRef(branch);
+		ref.setNewObjectId(commit);
+		ref.setRefLogMessage("pull: sparse", false);
+		check(ref.forceUpdate());
+		update(repo, commit, patterns);
+		return true;
+	}
+	
+	/**
+	 * Apply new patterns to checked out commit.
+	 * 
+	 * @param repo
+	 * @param patterns
+	 * @throws IOException
+	 */
+	static void reapply(Repository repo, List<String> patterns) throws IOException {
+		ObjectId commit = repo.resolve(Constants.HEAD);
+		if (commit != null) { // not an empty repo
+			update(repo, commit, patterns);
+		}
+	}
+	
+	/**
+	 * Make working tree and index match files of a commit under patterns.
+	 * Only files which differ from index are written or deleted.
+	 * 
+	 * @param repo
+	 * @param commit
+	 * @param patterns folders; null for all files, empty for none
+	 * @throws IOException
+	 */
+	static void update(Repository repo, ObjectId commit, List<String> patterns) throws IOException {
+		File root = repo.getWorkTree();
+		DirCache index = repo.lockDirCache();
+		ObjectReader reader = repo.newObjectReader();
+		int written = 0;
+		try {
+			Map<String, DirCacheEntry> current = new HashMap<String, DirCacheEntry>();
+			for (int i = 0; i < index.getEntryCount(); i++) {
+				DirCacheEntry entry = index.getEntry(i);
+				current.put(entry.getPathString(), entry);
+			}
+			DirCacheBuilder builder = index.builder();
+			if ((patterns == null) || !patterns.isEmpty()) {
+				TreeWalk tw = new TreeWalk(reader);
+				tw.setRecursive(true);
+				tw.addTree(new RevWalk(reader).parseCommit(commit).getTree());
+				if (patterns != null) {
+					tw.setFilter(PathFilterGroup.createFromStrings(patterns));
+				}
+				while (tw.next()) {
+					DirCacheEntry old = current.remove(tw.getPathString());
+					if ((old != null) && (old.getRawMode() == tw.getRawMode(0))
+							&& old.getObjectId().equals(tw.getObjectId(0))) {
+						builder.add(old);
+						continue;
+					}
+					DirCacheEntry entry = new DirCacheEntry(tw.getPathString());
+					entry.setFileMode(tw.getFileMode(0));
+					entry.setObjectId(tw.getObjectId(0));
+					File file = new File(root, tw.getPathString());
+					if (FileMode.GITLINK.equals(tw.getRawMode(0))) {
+						file.mkdirs(); // submodule is not cloned
+					} else {
+						DirCacheCheckout.checkoutEntry(repo, file, entry, reader);
+						written++;
+					}
+					builder.add(entry);
+				}
+			}
+			// left entries are out of patterns or commit
+			for (String path: current.keySet()) {
+				delete(root, new File(root, path));
+			}
+			Log.d(TAG, "Written: " + written + ", deleted: " + current.size());
+			if (!builder.commit()) {
+				throw new IOException("Can't write index");
+			}
+		} finally {
+			index.unlock();
+			reader.release();
+		}
+	}
+	
+	/**
+	 * Delete file and its folders left empty.
+	 * 
+	 * @param root
+	 * @param file
+	 */
+	private static void delete(File root, File file) {
+		if (file.isDirectory()) {
+			return; // submodule folder or replaced by folder
+		}
+		file.delete();
+		File dir = file.getParentFile();
+		while ((dir != null) && !dir.equals(root)) {
+			String[] left = dir.list();
+			if ((left == null) || (left.length > 0) || !dir.delete()) {
+				break;
+			}
+			dir = dir.getParentFile();
+		}
+	}
+	
+	private static void check(RefUpdate.Result result) throws IOException {
+		switch (result) {
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+		case NO_CHANGE:
+			return;
+		default:
+			throw new IOException("Ref update failed: " + result);
+		}
+	}
+
+}